@@ -0,0 +1,180 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * This class answers a stream of report queries without the interactive
+ * prompt. Every input line holds one query: a zip code, a start date and an
+ * end date separated by commas or spaces (lines that are empty or start
+ * with # are skipped).
+ *
+ * The queries are read in blocks that are evaluated in parallel on a pool
+ * of worker threads against a read-only index, and the results are written
+ * in input order as soon as the blocks at the front are done. Results are
+ * written as the text report printed by the prompt, or as one csv line per
+ * query. The number of queries and the throughput are printed to System.err
+ * at the end.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class BatchQuery {
+
+	// number of queries evaluated by one task
+	static final int BLOCK_SIZE = 1024;
+
+	// header of the csv output
+	static final String CSV_HEADER = "zip,start,end,collisions,pedestrians_killed,cyclists_killed,"
+			+ "motorists_killed,pedestrians_injured,cyclists_injured,motorists_injured";
+
+	// separates the fields of a query
+	private static final Pattern SEPARATOR = Pattern.compile("\\s*[,\\s]\\s*");
+
+	private final ReportIndex index;
+	private final boolean csv;
+	private final int threads;
+
+	/**
+	 * Creates a batch runner.
+	 *
+	 * @param index the index that answers the queries; it is only read
+	 * @param format "text" for the prompt's report text, "csv" for csv lines
+	 * @param threads number of worker threads
+	 * @throws IllegalArgumentException if the format is unknown
+	 */
+	public BatchQuery(ReportIndex index, String format, int threads) throws IllegalArgumentException {
+		if (!format.equals("text") && !format.equals("csv"))
+			throw new IllegalArgumentException("Unknown output format " + format);
+		this.index = index;
+		this.csv = format.equals("csv");
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads all queries from input and writes their results to output.
+	 *
+	 * @param input the queries, one per line
+	 * @param output where the results are written
+	 * @return number of queries answered
+	 * @throws IOException if the input cannot be read
+	 */
+	public long run(BufferedReader input, PrintWriter output) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// blocks that are submitted but not written yet, in input order
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		long count = 0;
+		long start = System.nanoTime();
+		try {
+			if (csv)
+				output.println(CSV_HEADER);
+			ArrayList<String> block = new ArrayList<String>(BLOCK_SIZE);
+			String line;
+			while ((line = input.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				block.add(line);
+				count++;
+				if (block.size() == BLOCK_SIZE) {
+					final String[] queries = block.toArray(new String[block.size()]);
+					pending.add(pool.submit(() -> answer(queries)));
+					block.clear();
+					// keep a bounded number of blocks in flight
+					if (pending.size() >= threads * 4)
+						output.print(result(pending.poll()));
+				}
+			}
+			if (!block.isEmpty()) {
+				final String[] queries = block.toArray(new String[block.size()]);
+				pending.add(pool.submit(() -> answer(queries)));
+			}
+			while (!pending.isEmpty())
+				output.print(result(pending.poll()));
+			output.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format("%d queries in %.3f s (%.0f queries/s, %d threads)", count, seconds,
+				count / seconds, threads));
+		return count;
+	}
+
+	/*
+	 * Waits for a block to finish and returns its output.
+	 */
+	private static String result(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for results", e);
+		} catch (ExecutionException e) {
+			throw new IOException("query failed", e.getCause());
+		}
+	}
+
+	/*
+	 * Answers a block of queries and returns their output.
+	 */
+	private String answer(String[] queries) {
+		StringBuilder sb = new StringBuilder();
+		for (String query : queries)
+			answer(query, sb);
+		return sb.toString();
+	}
+
+	/*
+	 * Answers one query and appends its output. Invalid queries produce an
+	 * error line in their place so that the output stays in input order.
+	 */
+	private void answer(String query, StringBuilder sb) {
+		String[] fields = SEPARATOR.split(query);
+		if (fields.length != 3) {
+			error(query, "expected zip code, start date and end date", sb);
+			return;
+		}
+		String zip = fields[0];
+		if (zip.length() != 5 || !Collision.containsDigit(zip)) {
+			error(query, "invalid zip code", sb);
+			return;
+		}
+		Date dateBegin;
+		Date dateEnd;
+		try {
+			dateBegin = new Date(fields[1]);
+			dateEnd = new Date(fields[2]);
+		} catch (IllegalArgumentException e) {
+			error(query, "invalid date format", sb);
+			return;
+		}
+
+		if (!csv) {
+			sb.append(index.getReport(zip, dateBegin, dateEnd)).append("\n\n");
+			return;
+		}
+		int[] totals = index.getTotals(zip, dateBegin, dateEnd);
+		sb.append(zip).append(',').append(dateBegin).append(',').append(dateEnd);
+		for (int total : totals)
+			sb.append(',').append(total);
+		sb.append('\n');
+	}
+
+	/*
+	 * Appends the output for an invalid query.
+	 */
+	private void error(String query, String message, StringBuilder sb) {
+		if (csv)
+			sb.append("# invalid query \"").append(query).append("\": ").append(message).append('\n');
+		else
+			sb.append("Invalid query \"").append(query).append("\": ").append(message).append("\n\n");
+	}
+}
@@ -0,0 +1,469 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class runs the benchmarks that guard the hot paths of the program
+ * against regressions: splitCSVLine, the Collision(ArrayList) constructor,
+ * Date(String), CollisionsData.add, CollisionsData.remove, getReport, and
+ * getReport of a FrozenIndex built from the same records (frozenReport).
+ *
+ * Every benchmark runs on synthetic rows (random values in the shape of the
+ * collisions file) and, when a file is given, on the rows of that file, at
+ * each of the requested sizes. A size is the number of operations of one
+ * iteration; for add, remove and the reports it is also the number of records
+ * in the tree. The parsing benchmarks cycle through at most POOL_SIZE
+ * distinct rows so that large sizes do not need the rows in memory; the tree
+ * benchmarks hold size records (about 200 bytes each, so 1e8 needs a heap of
+ * 20 GB or more).
+ *
+ * Each benchmark is run for a number of warmup iterations and then for a
+ * number of measured ones. The time per operation is the mean over the
+ * measured iterations (with its standard deviation); the allocation per
+ * operation is measured with the allocation counter of the current thread,
+ * like the gc profiler of JMH.
+ *
+ * The results are written to a csv file that can be kept as a baseline; a
+ * later run given --baseline prints the change of every benchmark against
+ * it and exits with status 1 if one got slower by more than --threshold
+ * percent and by more than twice the standard deviation of either run.
+ *
+ * The same benchmarks run under JMH in the jmh module (HotPathBenchmark).
+ * Given --jmh and the csv file JMH wrote with -rf csv, the suite reads the
+ * results from it instead of running the benchmarks, so a JMH run can be
+ * written as a baseline with --out and compared with --baseline. This class
+ * stays the fallback that needs nothing but the JDK.
+ *
+ * Usage: java BenchmarkSuite [--sizes 100000,1000000] [--file csv file]
+ *          [--warmup 2] [--iterations 5] [--filter name] [--out results.csv]
+ *          [--baseline results.csv] [--threshold 10] [--jmh jmh.csv]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class BenchmarkSuite {
+
+	// most distinct rows kept for the parsing benchmarks
+	static final int POOL_SIZE = 1 << 20;
+	// number of queries of one getReport iteration is the size, cycling these
+	static final int QUERY_POOL_SIZE = 1 << 16;
+
+	static final String HEADER = "benchmark,dataset,size,ns_per_op,stdev,bytes_per_op";
+
+	// keeps the JIT from discarding the measured work
+	private static long sink;
+
+	/**
+	 * Workload is one benchmark at one size. setup prepares the data of an
+	 * iteration and is not timed; run performs the operations of one
+	 * iteration. It is a Runnable so that the JMH benchmarks (which cannot
+	 * name the classes of the default package) can run it directly.
+	 */
+	interface Workload extends Runnable {
+		default void setup() {
+		}
+
+		@Override
+		void run();
+	}
+
+	/**
+	 * Result holds the measurement of one benchmark on one dataset and size.
+	 */
+	static class Result {
+		final String benchmark;
+		final String dataset;
+		final long size;
+		final double nsPerOp;
+		final double stdev;
+		final double bytesPerOp;
+
+		Result(String benchmark, String dataset, long size, double nsPerOp, double stdev, double bytesPerOp) {
+			this.benchmark = benchmark;
+			this.dataset = dataset;
+			this.size = size;
+			this.nsPerOp = nsPerOp;
+			this.stdev = stdev;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		String id() {
+			return benchmark + "," + dataset + "," + size;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s,%.2f,%.2f,%.1f", id(), nsPerOp, stdev, bytesPerOp);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		// options are given as --name value, like the ones of CollisionInfo
+		String[] withFile = new String[args.length + 1];
+		System.arraycopy(args, 0, withFile, 1, args.length);
+		HashMap<String, String> options = CollisionInfo.parseOptions(withFile);
+
+		long[] sizes = {100000, 1000000};
+		if (options.containsKey("sizes")) {
+			String[] parts = options.get("sizes").split(",");
+			sizes = new long[parts.length];
+			for (int i = 0; i < parts.length; i++)
+				sizes[i] = (long) Double.parseDouble(parts[i]);
+		}
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+		int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+		String filter = options.get("filter");
+		double threshold = Double.parseDouble(options.getOrDefault("threshold", "10"));
+
+		// with --jmh there is nothing to run
+		LinkedHashMap<String, String[]> datasets = new LinkedHashMap<String, String[]>();
+		if (!options.containsKey("jmh")) {
+			datasets.put("synthetic", syntheticRows(POOL_SIZE, new Random(42)));
+			if (options.containsKey("file"))
+				datasets.put("real", realRows(Paths.get(options.get("file")), POOL_SIZE));
+		}
+
+		ArrayList<Result> results = new ArrayList<Result>();
+		System.out.println(HEADER);
+		if (options.containsKey("jmh")) {
+			results = readJmh(Paths.get(options.get("jmh")));
+			for (Result result : results)
+				System.out.println(result);
+		}
+		for (String dataset : datasets.keySet()) {
+			String[] rows = datasets.get(dataset);
+			for (long size : sizes) {
+				for (String name : new String[] {"splitCSVLine", "Collision", "Date", "add", "remove", "getReport",
+						"frozenReport"}) {
+					if (filter != null && !name.contains(filter))
+						continue;
+					Result result = measure(name, dataset, size, workload(name, rows, size), warmup, iterations);
+					System.out.println(result);
+					results.add(result);
+				}
+			}
+		}
+
+		if (options.containsKey("out"))
+			write(Paths.get(options.get("out")), results, options.containsKey("jmh") ? "JMH" : "BenchmarkSuite");
+		if (options.containsKey("baseline") && compare(Paths.get(options.get("baseline")), results, threshold))
+			System.exit(1);
+	}
+
+	/*
+	 * Creates the workload of a benchmark over the given rows.
+	 */
+	static Workload workload(String name, String[] rows, long size) {
+		switch (name) {
+		case "splitCSVLine":
+			return () -> {
+				for (long i = 0; i < size; i++)
+					sink += CollisionInfo.splitCSVLine(rows[(int) (i % rows.length)]).size();
+			};
+		case "Collision": {
+			ArrayList<ArrayList<String>> entries = new ArrayList<ArrayList<String>>();
+			for (int i = 0; i < rows.length && i < size; i++)
+				entries.add(CollisionInfo.splitCSVLine(rows[i]));
+			return () -> {
+				for (long i = 0; i < size; i++)
+					sink += new Collision(entries.get((int) (i % entries.size()))).getPersonsInjured();
+			};
+		}
+		case "Date": {
+			String[] dates = new String[rows.length];
+			for (int i = 0; i < rows.length; i++)
+				dates[i] = rows[i].substring(0, rows[i].indexOf(','));
+			return () -> {
+				for (long i = 0; i < size; i++)
+					sink += new Date(dates[(int) (i % dates.length)]).getDay();
+			};
+		}
+		case "add": {
+			Collision[] records = shuffle(records(rows, size), new Random(7));
+			return () -> {
+				CollisionsData tree = new CollisionsData();
+				for (Collision record : records)
+					tree.add(record);
+				sink += tree.size();
+			};
+		}
+		case "remove": {
+			Collision[] records = records(rows, size);
+			Collision[] order = shuffle(records.clone(), new Random(7));
+			return new Workload() {
+				CollisionsData tree;
+
+				@Override
+				public void setup() {
+					tree = new CollisionsData(records);
+				}
+
+				@Override
+				public void run() {
+					for (Collision record : order)
+						tree.remove(record);
+					sink += tree.size();
+				}
+			};
+		}
+		case "getReport":
+		case "frozenReport": {
+			Collision[] records = records(rows, size);
+			ReportIndex tree = name.equals("getReport") ? new CollisionsData(records) : new FrozenIndex(records);
+			int count = (int) Math.min(size, QUERY_POOL_SIZE);
+			String[] zips = new String[count];
+			Date[] begins = new Date[count];
+			Date[] ends = new Date[count];
+			ReportBenchmark.queryMix(records, new Random(42), zips, begins, ends);
+			return () -> {
+				for (long i = 0; i < size; i++) {
+					int q = (int) (i % count);
+					sink += tree.getReport(zips[q], begins[q], ends[q]).length();
+				}
+			};
+		}
+		default:
+			throw new IllegalArgumentException("Unknown benchmark " + name);
+		}
+	}
+
+	/*
+	 * Runs the warmup and measured iterations of a workload.
+	 */
+	static Result measure(String name, String dataset, long size, Workload workload, int warmup, int iterations) {
+		for (int i = 0; i < warmup; i++) {
+			workload.setup();
+			workload.run();
+		}
+		double[] times = new double[iterations];
+		double bytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			workload.setup();
+			long allocated = DateBenchmark.allocatedBytes();
+			long start = System.nanoTime();
+			workload.run();
+			times[i] = (double) (System.nanoTime() - start) / size;
+			bytes += (double) (DateBenchmark.allocatedBytes() - allocated) / size;
+		}
+		double mean = 0;
+		for (double time : times)
+			mean += time / iterations;
+		double variance = 0;
+		for (double time : times)
+			variance += (time - mean) * (time - mean) / Math.max(1, iterations - 1);
+		return new Result(name, dataset, size, mean, Math.sqrt(variance), bytes / iterations);
+	}
+
+	/*
+	 * Creates size records from the rows. Once every row has been used, the
+	 * rows are used again with new keys so that all records are distinct.
+	 */
+	static Collision[] records(String[] rows, long size) {
+		ArrayList<Collision> records = new ArrayList<Collision>();
+		long key = 1L << 40;
+		for (long i = 0; records.size() < size && i < size * 2 + rows.length; i++) {
+			ArrayList<String> entries = CollisionInfo.splitCSVLine(rows[(int) (i % rows.length)]);
+			if (i >= rows.length && entries.size() > 23)
+				entries.set(23, Long.toString(key++));
+			try {
+				records.add(new Collision(entries));
+			} catch (IllegalArgumentException e) {
+				// skip the invalid record
+			}
+		}
+		return records.toArray(new Collision[records.size()]);
+	}
+
+	/*
+	 * Shuffles the records in place and returns them.
+	 */
+	static Collision[] shuffle(Collision[] records, Random random) {
+		for (int i = records.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Collision swap = records[i];
+			records[i] = records[j];
+			records[j] = swap;
+		}
+		return records;
+	}
+
+	/*
+	 * Creates rows in the format of the collisions file: a few hundred zip
+	 * codes of very different sizes, dates from 2012 to 2017, mostly zero
+	 * counters and a quoted location.
+	 */
+	static String[] syntheticRows(int count, Random random) {
+		String[] boroughs = {"BROOKLYN", "QUEENS", "MANHATTAN", "BRONX", "STATEN ISLAND"};
+		String[] rows = new String[count];
+		for (int i = 0; i < count; i++) {
+			// squaring skews the choice towards the first zip codes
+			double skew = random.nextDouble();
+			int zip = 10001 + (int) (skew * skew * 400);
+			int injured = random.nextInt(10) < 7 ? 0 : 1 + random.nextInt(4);
+			int killed = random.nextInt(100) == 0 ? 1 : 0;
+			double latitude = 40.5 + random.nextDouble() / 2;
+			double longitude = -74.2 + random.nextDouble() / 2;
+			rows[i] = String.format(Locale.ROOT, "%02d/%02d/%d,%d:%02d,%s,%05d,%.4f,%.4f,\"(%.4f, %.4f)\",BROADWAY,2 AVENUE,,"
+					+ "%d,%d,%d,%d,%d,%d,%d,%d,Unspecified,,,,,%d,SEDAN,,,,", 1 + random.nextInt(12),
+					1 + random.nextInt(28), 2012 + random.nextInt(6), random.nextInt(24), random.nextInt(60),
+					boroughs[random.nextInt(boroughs.length)], zip, latitude, longitude, latitude, longitude,
+					injured, killed, injured / 2, killed, injured / 4, 0, injured - injured / 2 - injured / 4,
+					0, 1000000 + i);
+		}
+		return rows;
+	}
+
+	/*
+	 * Reads at most count valid rows of a collisions file.
+	 */
+	static String[] realRows(Path path, int count) throws IOException {
+		ArrayList<String> rows = new ArrayList<String>();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while (rows.size() < count && (line = reader.readLine()) != null) {
+				try {
+					new Collision(CollisionInfo.splitCSVLine(line));
+					rows.add(line);
+				} catch (IllegalArgumentException | NullPointerException e) {
+					// skip the header and invalid rows
+				}
+			}
+		}
+		if (rows.isEmpty())
+			throw new IOException("the file " + path + " holds no valid records");
+		return rows.toArray(new String[rows.size()]);
+	}
+
+	/*
+	 * Reads the results of HotPathBenchmark from the csv file of JMH. An
+	 * operation of JMH is one iteration of a workload, so its score and the
+	 * bytes allocated per operation (gc.alloc.rate.norm, when JMH was run
+	 * with -prof gc) are divided by the size. JMH gives the 99.9% error of
+	 * the score instead of a standard deviation; half of it is kept, so that
+	 * the noise of compare is the error itself.
+	 */
+	static ArrayList<Result> readJmh(Path path) throws IOException {
+		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		if (lines.isEmpty())
+			throw new IOException("the file " + path + " is empty");
+		List<String> header = CollisionInfo.splitCSVLine(lines.get(0));
+		int benchmarkColumn = header.indexOf("Benchmark");
+		int scoreColumn = header.indexOf("Score");
+		int errorColumn = header.indexOf("Score Error (99.9%)");
+		int unitColumn = header.indexOf("Unit");
+		int datasetColumn = header.indexOf("Param: dataset");
+		int sizeColumn = header.indexOf("Param: size");
+		if (benchmarkColumn < 0 || scoreColumn < 0 || unitColumn < 0 || sizeColumn < 0)
+			throw new IOException("the file " + path + " is not a csv file of HotPathBenchmark");
+
+		LinkedHashMap<String, double[]> scores = new LinkedHashMap<String, double[]>();
+		HashMap<String, Double> allocations = new HashMap<String, Double>();
+		for (String line : lines.subList(1, lines.size())) {
+			List<String> fields = CollisionInfo.splitCSVLine(line);
+			if (fields.size() < header.size())
+				continue;
+			// the benchmark is the method name, a secondary result follows a colon
+			String benchmark = fields.get(benchmarkColumn);
+			String secondary = "";
+			if (benchmark.indexOf(':') >= 0) {
+				secondary = benchmark.substring(benchmark.indexOf(':') + 1);
+				benchmark = benchmark.substring(0, benchmark.indexOf(':'));
+			}
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+			String dataset = datasetColumn < 0 ? "synthetic" : fields.get(datasetColumn);
+			String id = benchmark + "," + dataset + "," + fields.get(sizeColumn);
+			double score = Double.parseDouble(fields.get(scoreColumn));
+			if (secondary.isEmpty()) {
+				double error = errorColumn < 0 ? Double.NaN : Double.parseDouble(fields.get(errorColumn));
+				double nanos = nanosPerUnit(fields.get(unitColumn));
+				scores.put(id, new double[] {score * nanos, Double.isNaN(error) ? 0 : error * nanos});
+			} else if (secondary.endsWith("gc.alloc.rate.norm")) {
+				allocations.put(id, score);
+			}
+		}
+
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (String id : scores.keySet()) {
+			String[] parts = id.split(",");
+			long size = Long.parseLong(parts[2]);
+			double[] score = scores.get(id);
+			results.add(new Result(parts[0], parts[1], size, score[0] / size, score[1] / 2 / size,
+					allocations.getOrDefault(id, 0.0) / size));
+		}
+		return results;
+	}
+
+	/*
+	 * Returns the nanoseconds of the time unit of a JMH score such as ms/op.
+	 */
+	private static double nanosPerUnit(String unit) throws IOException {
+		switch (unit) {
+		case "ns/op":
+			return 1;
+		case "us/op":
+			return 1e3;
+		case "ms/op":
+			return 1e6;
+		case "s/op":
+			return 1e9;
+		default:
+			throw new IOException("unknown unit " + unit + ", run JMH in average or single shot time mode");
+		}
+	}
+
+	/*
+	 * Writes the results as a csv file, with where they come from, the Java
+	 * version and machine in a comment line.
+	 */
+	static void write(Path path, ArrayList<Result> results, String source) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+			out.println("# " + source + ", java " + System.getProperty("java.version") + ", " + System.getProperty("os.name") + " "
+					+ System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+			out.println(HEADER);
+			for (Result result : results)
+				out.println(result);
+		}
+	}
+
+	/*
+	 * Prints the change of every result against a baseline file.
+	 *
+	 * @return true if a benchmark got slower by more than threshold percent
+	 */
+	static boolean compare(Path baseline, ArrayList<Result> results, double threshold) throws IOException {
+		HashMap<String, String[]> old = new HashMap<String, String[]>();
+		for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+			String[] fields = line.split(",");
+			if (!line.startsWith("#") && !line.equals(HEADER) && fields.length == 6)
+				old.put(fields[0] + "," + fields[1] + "," + fields[2], fields);
+		}
+		boolean regression = false;
+		System.out.println();
+		System.out.println("benchmark,dataset,size,time_change_percent,alloc_change_percent");
+		for (Result result : results) {
+			String[] fields = old.get(result.id());
+			if (fields == null)
+				continue;
+			double time = 100 * (result.nsPerOp / Double.parseDouble(fields[3]) - 1);
+			double oldBytes = Double.parseDouble(fields[5]);
+			// no allocation is recorded when JMH ran without -prof gc
+			double alloc = oldBytes == 0 || result.bytesPerOp == 0 ? 0 : 100 * (result.bytesPerOp / oldBytes - 1);
+			// a change within the noise of either run does not count
+			double noise = 2 * Math.max(result.stdev, Double.parseDouble(fields[4]));
+			boolean slower = time > threshold && result.nsPerOp - Double.parseDouble(fields[3]) > noise;
+			regression |= slower;
+			System.out.println(String.format(Locale.ROOT, "%s,%+.1f,%+.1f%s", result.id(), time, alloc, slower ? ",REGRESSION" : ""));
+		}
+		return regression;
+	}
+}
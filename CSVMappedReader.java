@@ -0,0 +1,447 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads a CSV file by memory mapping it and scanning the UTF-8
+ * bytes directly. It follows the same splitting rules as
+ * CollisionInfo.splitCSVLine (commas, regular and smart quotes, skipped
+ * whitespace between entries and a trimmed last entry), but instead of
+ * building a String for every entry it records where each entry starts and
+ * ends in the mapped buffer and hands that to a RowHandler.
+ *
+ * Lines are split the same way Scanner.nextLine splits them.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class CSVMappedReader {
+
+	// Largest region of the file that is mapped at once
+	static final int WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * RowHandler receives every row found in the file. The row object is
+	 * reused for the next line, so it is only valid during the call.
+	 */
+	public interface RowHandler {
+		void handle(Row row);
+	}
+
+	/**
+	 * Reads the whole file and passes every line to the handler.
+	 *
+	 * @param path the file to read
+	 * @param handler the handler that receives each row
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static void read(Path path, RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			Row row = new Row();
+			while (position < size) {
+				MappedByteBuffer buffer = mapWindow(channel, position);
+				int end = windowEnd(buffer, position + buffer.limit() == size);
+				scan(buffer, 0, end, row, handler);
+				position += end;
+			}
+		}
+	}
+
+	/**
+	 * Maps the next window of the file starting at position.
+	 *
+	 * @param channel the open file
+	 * @param position offset of the first byte to map
+	 * @return the mapped window
+	 * @throws IOException if the region cannot be mapped
+	 */
+	static MappedByteBuffer mapWindow(FileChannel channel, long position) throws IOException {
+		long length = Math.min(WINDOW_SIZE, channel.size() - position);
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Determines how much of a window can be scanned without cutting a line
+	 * in half: everything up to and including the last newline, or the whole
+	 * window if it is the last one.
+	 *
+	 * @param buffer the mapped window
+	 * @param lastWindow true if the window reaches the end of the file
+	 * @return number of bytes that hold complete lines
+	 * @throws IOException if a single line does not fit in a window
+	 */
+	static int windowEnd(ByteBuffer buffer, boolean lastWindow) throws IOException {
+		int limit = buffer.limit();
+		if (lastWindow)
+			return limit;
+		for (int i = limit - 1; i >= 0; i--) {
+			if (buffer.get(i) == '\n')
+				return i + 1;
+		}
+		throw new IOException("line longer than " + WINDOW_SIZE + " bytes");
+	}
+
+	/**
+	 * Scans the lines stored in buffer between from and to and passes each one
+	 * to the handler. The range has to start at the beginning of a line.
+	 *
+	 * @param buffer the bytes to scan
+	 * @param from index of the first byte
+	 * @param to index one past the last byte
+	 * @param row row object that is filled in for each line
+	 * @param handler the handler that receives each row
+	 */
+	static void scan(ByteBuffer buffer, int from, int to, Row row, RowHandler handler) {
+		int i = from;
+		while (i < to) {
+			i = row.parse(buffer, i, to);
+			handler.handle(row);
+			i += lineTerminatorLength(buffer, i, to);
+		}
+	}
+
+	/*
+	 * Returns the number of bytes taken by the line terminator at index i,
+	 * or 0 if there is none. Mirrors the terminators used by Scanner.nextLine:
+	 * \r\n, \n, \r, U+0085, U+2028 and U+2029.
+	 */
+	static int lineTerminatorLength(ByteBuffer buffer, int i, int to) {
+		if (i >= to)
+			return 0;
+		int b = buffer.get(i) & 0xFF;
+		if (b == '\n')
+			return 1;
+		if (b == '\r')
+			return (i + 1 < to && buffer.get(i + 1) == '\n') ? 2 : 1;
+		if (b == 0xC2 && i + 1 < to && (buffer.get(i + 1) & 0xFF) == 0x85)
+			return 2;
+		if (b == 0xE2 && i + 2 < to && (buffer.get(i + 1) & 0xFF) == 0x80) {
+			int c = buffer.get(i + 2) & 0xFF;
+			if (c == 0xA8 || c == 0xA9)
+				return 3;
+		}
+		return 0;
+	}
+
+	/*
+	 * Returns the index just after the last line terminator before index to,
+	 * or 0 if there is none. A \r that is the last byte does not end a line
+	 * yet, since the \n of a \r\n may still follow it.
+	 */
+	static int lastLineEnd(ByteBuffer buffer, int to) {
+		for (int i = to - 1; i >= 0; i--) {
+			int length = lineTerminatorLength(buffer, i, to);
+			if (length > 0 && (i + 1 < to || buffer.get(i) != '\r'))
+				return i + length;
+		}
+		return 0;
+	}
+
+	/*
+	 * Returns the index just after the first line terminator at or after
+	 * index from, or -1 if there is none.
+	 */
+	static int nextLineEnd(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int length = lineTerminatorLength(buffer, i, to);
+			if (length > 0)
+				return i + length;
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the number of bytes taken by a regular or smart quote at index
+	 * i, or 0 if there is none.
+	 */
+	static int quoteLength(ByteBuffer buffer, int i, int to) {
+		int b = buffer.get(i) & 0xFF;
+		if (b == '"')
+			return 1;
+		if (b == 0xE2 && i + 2 < to && (buffer.get(i + 1) & 0xFF) == 0x80) {
+			int c = buffer.get(i + 2) & 0xFF;
+			if (c == 0x9C || c == 0x9D)
+				return 3;
+		}
+		return 0;
+	}
+
+	/*
+	 * Returns the number of bytes taken by a whitespace character (as defined
+	 * by Character.isWhitespace) at index i, or 0 if there is none.
+	 */
+	static int whitespaceLength(ByteBuffer buffer, int i, int to) {
+		int b = buffer.get(i) & 0xFF;
+		if (b < 0x80)
+			return (b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F)) ? 1 : 0;
+		if (i + 2 >= to)
+			return 0;
+		int c = buffer.get(i + 1) & 0xFF;
+		int d = buffer.get(i + 2) & 0xFF;
+		// U+1680, U+2000-U+2006, U+2008-U+200A, U+205F and U+3000
+		if ((b == 0xE1 && c == 0x9A && d == 0x80)
+				|| (b == 0xE2 && c == 0x80 && d >= 0x80 && d <= 0x8A && d != 0x87)
+				|| (b == 0xE2 && c == 0x81 && d == 0x9F)
+				|| (b == 0xE3 && c == 0x80 && d == 0x80))
+			return 3;
+		return 0;
+	}
+
+	/**
+	 * Row holds the position of every entry of one line in the mapped buffer.
+	 *
+	 * An entry is "clean" when its value is a contiguous run of bytes in the
+	 * buffer, which is the case for almost every entry. Entries that are not
+	 * (for example ab"c,d"e) are rebuilt from their raw bytes on request.
+	 */
+	public static class Row {
+		private ByteBuffer buffer;
+		private int size;
+		// true if the last entry ended the line and was therefore trimmed
+		private boolean lastTrimmed;
+		// raw bytes between the separating commas
+		private int[] rawStart = new int[32];
+		private int[] rawEnd = new int[32];
+		// bytes of the value itself
+		private int[] valueStart = new int[32];
+		private int[] valueEnd = new int[32];
+		private boolean[] clean = new boolean[32];
+		// scratch space used to turn entries into Strings
+		private byte[] scratch = new byte[64];
+
+		/**
+		 * Returns the number of entries found on the line
+		 * @return number of entries
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the buffer that holds the row
+		 * @return buffer the mapped buffer
+		 */
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		/**
+		 * Returns the index of the first byte of entry i
+		 * @param i index of the entry
+		 * @return index in the buffer
+		 */
+		public int start(int i) {
+			return valueStart[i];
+		}
+
+		/**
+		 * Returns the index one past the last byte of entry i
+		 * @param i index of the entry
+		 * @return index in the buffer
+		 */
+		public int end(int i) {
+			return valueEnd[i];
+		}
+
+		/**
+		 * Returns true if entry i is stored as one contiguous run of bytes
+		 * between start(i) and end(i)
+		 * @param i index of the entry
+		 * @return true/false based on the layout of the entry
+		 */
+		public boolean isClean(int i) {
+			return clean[i];
+		}
+
+		/**
+		 * Returns entry i as a String, exactly as splitCSVLine would return it
+		 * @param i index of the entry
+		 * @return the entry
+		 */
+		public String getString(int i) {
+			if (clean[i])
+				return new String(copy(valueStart[i], valueEnd[i]), 0, valueEnd[i] - valueStart[i],
+						StandardCharsets.UTF_8);
+			return rebuild(i);
+		}
+
+		/**
+		 * Returns entry i as an int, exactly as Integer.valueOf would parse it
+		 * @param i index of the entry
+		 * @return the value of the entry
+		 * @throws NumberFormatException if the entry is not a valid int
+		 */
+		public int getInt(int i) throws NumberFormatException {
+			int p = valueStart[i];
+			int end = valueEnd[i];
+			if (!clean[i] || p == end)
+				return Integer.parseInt(getString(i));
+
+			boolean negative = false;
+			int first = buffer.get(p);
+			if (first == '-' || first == '+') {
+				negative = first == '-';
+				p++;
+				if (p == end)
+					return Integer.parseInt(getString(i));
+			}
+			// accumulate negatively so that Integer.MIN_VALUE fits
+			int result = 0;
+			for (; p < end; p++) {
+				int digit = buffer.get(p) - '0';
+				if (digit < 0 || digit > 9 || result < (Integer.MIN_VALUE + digit) / 10)
+					return Integer.parseInt(getString(i));
+				result = result * 10 - digit;
+			}
+			if (!negative && result == Integer.MIN_VALUE)
+				return Integer.parseInt(getString(i));
+			return negative ? result : -result;
+		}
+
+		/*
+		 * Fills the row with the entries of the line starting at index from.
+		 * Follows the state machine of splitCSVLine byte by byte.
+		 *
+		 * @return index of the line terminator (or to) that ends the line
+		 */
+		int parse(ByteBuffer buffer, int from, int to) {
+			this.buffer = buffer;
+			size = 0;
+			lastTrimmed = false;
+			boolean insideQuotes = false;
+			boolean insideEntry = false;
+			int entryStart = from;
+			int first = -1;
+			int last = -1;
+			int appended = 0;
+
+			int i = from;
+			while (i < to) {
+				if (lineTerminatorLength(buffer, i, to) > 0)
+					break;
+				int length;
+				if ((length = quoteLength(buffer, i, to)) > 0) {
+					insideQuotes = !insideQuotes;
+					insideEntry = insideQuotes;
+				} else if ((length = whitespaceLength(buffer, i, to)) > 0) {
+					if (insideQuotes || insideEntry) {
+						if (first < 0)
+							first = i;
+						last = i + length;
+						appended += length;
+					}
+				} else if (buffer.get(i) == ',') {
+					length = 1;
+					if (insideQuotes) {
+						if (first < 0)
+							first = i;
+						last = i + 1;
+						appended++;
+					} else {
+						insideEntry = false;
+						addEntry(entryStart, i, first, last, appended, false);
+						entryStart = i + 1;
+						first = -1;
+						last = -1;
+						appended = 0;
+					}
+				} else {
+					length = 1;
+					if (first < 0)
+						first = i;
+					last = i + 1;
+					appended++;
+					insideEntry = true;
+				}
+				i += length;
+			}
+			// the last entry is only added when it is not empty, and is trimmed
+			if (appended > 0) {
+				addEntry(entryStart, i, first, last, appended, true);
+				lastTrimmed = true;
+			}
+			return i;
+		}
+
+		/*
+		 * Records one entry, growing the arrays if needed.
+		 */
+		private void addEntry(int from, int to, int first, int last, int appended, boolean trim) {
+			if (size == rawStart.length) {
+				int capacity = size * 2;
+				rawStart = Arrays.copyOf(rawStart, capacity);
+				rawEnd = Arrays.copyOf(rawEnd, capacity);
+				valueStart = Arrays.copyOf(valueStart, capacity);
+				valueEnd = Arrays.copyOf(valueEnd, capacity);
+				clean = Arrays.copyOf(clean, capacity);
+			}
+			if (first < 0)
+				first = last = from;
+			boolean contiguous = appended == last - first;
+			if (trim && contiguous) {
+				while (first < last && (buffer.get(first) & 0xFF) <= ' ')
+					first++;
+				while (last > first && (buffer.get(last - 1) & 0xFF) <= ' ')
+					last--;
+			}
+			rawStart[size] = from;
+			rawEnd[size] = to;
+			valueStart[size] = first;
+			valueEnd[size] = last;
+			clean[size] = contiguous;
+			size++;
+		}
+
+		/*
+		 * Rebuilds an entry that is not stored contiguously by running the
+		 * splitCSVLine rules over its raw bytes.
+		 */
+		private String rebuild(int i) {
+			int from = rawStart[i];
+			int to = rawEnd[i];
+			byte[] bytes = new byte[to - from];
+			int n = 0;
+			boolean insideQuotes = false;
+			boolean insideEntry = false;
+			int p = from;
+			while (p < to) {
+				int length;
+				if ((length = quoteLength(buffer, p, to)) > 0) {
+					insideQuotes = !insideQuotes;
+					insideEntry = insideQuotes;
+				} else if ((length = whitespaceLength(buffer, p, to)) > 0) {
+					if (insideQuotes || insideEntry) {
+						buffer.get(p, bytes, n, length);
+						n += length;
+					}
+				} else {
+					// commas can only appear here inside quotes
+					length = 1;
+					bytes[n++] = buffer.get(p);
+					if (buffer.get(p) != ',')
+						insideEntry = true;
+				}
+				p += length;
+			}
+			String entry = new String(bytes, 0, n, StandardCharsets.UTF_8);
+			return (lastTrimmed && i == size - 1) ? entry.trim() : entry;
+		}
+
+		/*
+		 * Copies the bytes between from and to into the scratch array.
+		 */
+		private byte[] copy(int from, int to) {
+			if (scratch.length < to - from)
+				scratch = new byte[Math.max(to - from, scratch.length * 2)];
+			buffer.get(from, scratch, 0, to - from);
+			return scratch;
+		}
+	}
+}
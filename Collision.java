@@ -11,13 +11,33 @@ import java.util.ArrayList;
  * The class contains different accessing methods (getters) to get various data
  * fields, a compareTo, a toString and an equals method.
  *
+ * To save memory and make comparisons cheap, the zip code is the String
+ * shared by all records of that zip (see ZipDictionary) together with its
+ * int code, and a key made of up to 17 digits is kept as a long (see
+ * packKey) instead of a String. Both sort like the Strings they stand for,
+ * so compareTo orders records exactly as comparing the Strings would.
+ *
  * @author Alisha Sonawalla
  * @version 12/11/2017
  */
 public class Collision implements Comparable<Collision> {
 
+	// key of a record whose key is not packed into a long
+	static final long NO_KEY = -1;
+	// largest number of digits of a key packed into a long
+	static final int KEY_DIGITS = 17;
+	// powers of ten up to 10^KEY_DIGITS
+	private static final long[] POWERS = new long[KEY_DIGITS + 1];
+
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i <= KEY_DIGITS; i++)
+			POWERS[i] = POWERS[i - 1] * 10;
+	}
+
 	// Datafields to hold the values for each collision
 	private String zip;
+	private int zipCode;
 	private int personsInjured;
 	private int pedestriansInjured;
 	private int cyclistsInjured;
@@ -26,7 +46,8 @@ public class Collision implements Comparable<Collision> {
 	private int pedestriansKilled;
 	private int cyclistsKilled;
 	private int motoristsKilled;
-	private String key;
+	private long key;
+	private String otherKey;
 	private Date date;
 
 	/**
@@ -54,13 +75,13 @@ public class Collision implements Comparable<Collision> {
 
 		// Extract and validate Zip Code
 		if (entries.get(3) != null && entries.get(3).length() == 5 && entries.get(3).matches(".*\\d+.*")) {
-			zip = entries.get(3);
+			setZip(entries.get(3));
 		} else
 			throw new IllegalArgumentException("Invalid zip code");
 
 		// Extract and validate key
 		if (entries.get(23) != null && !entries.get(23).isEmpty()) {
-			key = entries.get(23);
+			setKey(entries.get(23));
 		} else
 			throw new NullPointerException("Invalid Key");
 
@@ -106,6 +127,224 @@ public class Collision implements Comparable<Collision> {
 		motoristsKilled = Integer.valueOf(entries.get(17));
 	}
 
+	/**
+	 * This constructor builds a collision directly from a row found by
+	 * CSVMappedReader. It applies the same validation, in the same order, as
+	 * the ArrayList constructor, but only turns the entries that are kept
+	 * into Strings.
+	 *
+	 * @param row a row of the memory mapped CSV file
+	 * @throws NullPointerException,
+	 *             IllegalArgumentException
+	 */
+	Collision(CSVMappedReader.Row row) throws NullPointerException, IllegalArgumentException {
+		// Verify that the there are at least 24 entries.
+		if (row.size() < 24)
+			throw new IllegalArgumentException("Invalid zip code");
+
+		// Update the date, parsed straight from the mapped bytes
+		if (row.isClean(0))
+			date = Date.fromPacked(Date.parse(row.buffer(), row.start(0), row.end(0)));
+		else
+			date = new Date(row.getString(0));
+
+		// Extract and validate Zip Code; five digits are looked up straight
+		// from the mapped bytes
+		zipCode = row.isClean(3) ? digitsCode(row, 3, 5) : ZipDictionary.NO_CODE;
+		if (zipCode != ZipDictionary.NO_CODE) {
+			zip = ZipDictionary.fromCode(zipCode);
+		} else {
+			String zipEntry = row.getString(3);
+			if (zipEntry.length() == 5 && containsDigit(zipEntry)) {
+				setZip(zipEntry);
+			} else
+				throw new IllegalArgumentException("Invalid zip code");
+		}
+
+		// Extract and validate key; up to KEY_DIGITS digits are packed
+		// straight from the mapped bytes
+		int keyLength = row.end(23) - row.start(23);
+		key = NO_KEY;
+		if (row.isClean(23) && keyLength > 0 && keyLength <= KEY_DIGITS) {
+			long value = 0;
+			for (int p = row.start(23); p < row.end(23) && value >= 0; p++) {
+				int digit = row.buffer().get(p) - '0';
+				value = digit >= 0 && digit <= 9 ? value * 10 + digit : -1;
+			}
+			if (value >= 0)
+				key = pack(value, keyLength);
+		}
+		if (key == NO_KEY) {
+			String keyEntry = row.getString(23);
+			if (!keyEntry.isEmpty()) {
+				setKey(keyEntry);
+			} else
+				throw new NullPointerException("Invalid Key");
+		}
+
+		// Extract and validate persons/pedestrians/cyclists/motorists.
+		personsInjured = getCount(row, 10, "Invalid Number of Persons Injured");
+		personsKilled = getCount(row, 11, "Invalid Number of Persons Killed");
+		pedestriansInjured = getCount(row, 12, "Invalid Number of Pedestrians Injured");
+		pedestriansKilled = getCount(row, 13, "Invalid Number of Pedestrians Killed");
+		cyclistsInjured = getCount(row, 14, "Invalid Number of Cyclists Injured");
+		cyclistsKilled = getCount(row, 15, "Invalid Number of Cyclists Killed");
+		motoristsInjured = getCount(row, 16, "Invalid Number of Mortorists Injured");
+		motoristsKilled = getCount(row, 17, "Invalid Number of Mortorists Killed");
+	}
+
+	/**
+	 * This constructor rebuilds a collision from the fields kept by an index
+	 * that stores records without their Collision objects, such as a
+	 * snapshot. The fields are not validated again.
+	 *
+	 * @param zip the zip code
+	 * @param date the date
+	 * @param packedKey the key packed by packKey, or NO_KEY
+	 * @param otherKey the key if it is not packed, otherwise null
+	 * @param counters persons injured, persons killed, pedestrians killed,
+	 *            cyclists killed, motorists killed, pedestrians injured,
+	 *            cyclists injured and motorists injured
+	 */
+	Collision(String zip, Date date, long packedKey, String otherKey, int[] counters) {
+		setZip(zip);
+		this.date = date;
+		key = packedKey;
+		this.otherKey = packedKey == NO_KEY ? otherKey : null;
+		personsInjured = counters[0];
+		personsKilled = counters[1];
+		pedestriansKilled = counters[2];
+		cyclistsKilled = counters[3];
+		motoristsKilled = counters[4];
+		pedestriansInjured = counters[5];
+		cyclistsInjured = counters[6];
+		motoristsInjured = counters[7];
+	}
+
+	/*
+	 * Sets the zip code to the shared String equal to zip, and its code.
+	 */
+	private void setZip(String zip) {
+		this.zip = ZipDictionary.intern(zip);
+		zipCode = ZipDictionary.code(zip);
+	}
+
+	/*
+	 * Sets the key, packed into a long if possible.
+	 */
+	private void setKey(String key) {
+		this.key = packKey(key);
+		otherKey = this.key == NO_KEY ? key : null;
+	}
+
+	/*
+	 * Returns the value of an entry of the row that is made of exactly the
+	 * given number of digits, or ZipDictionary.NO_CODE if it is not.
+	 */
+	private static int digitsCode(CSVMappedReader.Row row, int index, int length) {
+		if (row.end(index) - row.start(index) != length)
+			return ZipDictionary.NO_CODE;
+		int code = 0;
+		for (int p = row.start(index); p < row.end(index); p++) {
+			int digit = row.buffer().get(p) - '0';
+			if (digit < 0 || digit > 9)
+				return ZipDictionary.NO_CODE;
+			code = code * 10 + digit;
+		}
+		return code;
+	}
+
+	/*
+	 * Packs a key made of 1 to KEY_DIGITS digits into a long that sorts like
+	 * the key: the digits padded with zeros on the right to KEY_DIGITS
+	 * digits, followed by the length in the low five bits (so that "1" comes
+	 * before "10" and "10" before "9", as Strings do).
+	 *
+	 * @param key the key
+	 * @return the packed key, or NO_KEY if it cannot be packed
+	 */
+	static long packKey(String key) {
+		int length = key.length();
+		if (length == 0 || length > KEY_DIGITS)
+			return NO_KEY;
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = key.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return NO_KEY;
+			value = value * 10 + digit;
+		}
+		return pack(value, length);
+	}
+
+	/*
+	 * Packs the value of a key of the given number of digits (see packKey).
+	 */
+	static long pack(long value, int length) {
+		return value * POWERS[KEY_DIGITS - length] << 5 | length;
+	}
+
+	/*
+	 * Returns the number of digits of a packed key.
+	 */
+	static int keyLength(long packed) {
+		return (int) (packed & 31);
+	}
+
+	/*
+	 * Returns the value of the digits of a packed key.
+	 */
+	static long keyValue(long packed) {
+		return (packed >>> 5) / POWERS[KEY_DIGITS - keyLength(packed)];
+	}
+
+	/*
+	 * Turns a packed key back into its digits.
+	 *
+	 * @param packed a key packed by packKey
+	 * @return the key
+	 */
+	static String unpackKey(long packed) {
+		int length = keyLength(packed);
+		long value = keyValue(packed);
+		char[] digits = new char[length];
+		for (int i = length - 1; i >= 0; i--, value /= 10)
+			digits[i] = (char) ('0' + value % 10);
+		return new String(digits);
+	}
+
+	/*
+	 * Reads a count entry of the row and validates that it is not negative.
+	 *
+	 * @param row the row holding the entry
+	 * @param index index of the entry
+	 * @param message message of the exception thrown for negative values
+	 * @return the count
+	 * @throws IllegalArgumentException if the entry is not a valid count
+	 */
+	private static int getCount(CSVMappedReader.Row row, int index, String message) {
+		int count = row.getInt(index);
+		if (count < 0)
+			throw new IllegalArgumentException(message);
+		return count;
+	}
+
+	/*
+	 * Checks if the string contains at least one digit (same as matching
+	 * ".*\\d+.*", without compiling a pattern for every call).
+	 *
+	 * @param s the string to check
+	 * @return true if s contains a digit 0-9
+	 */
+	static boolean containsDigit(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9')
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 *This method returns the Zip Code of the Collision
 	 * @return zip the zip code
@@ -127,9 +366,45 @@ public class Collision implements Comparable<Collision> {
 	 * @return key the key of the collision object
 	 */
 	public String getKey() {
+		return key == NO_KEY ? otherKey : unpackKey(key);
+	}
+
+	/**
+	 * Returns the key packed into a long (see packKey), without building a
+	 * String; a packed key is always positive
+	 * @return the packed key, or NO_KEY if the key is not made of 1 to
+	 *         KEY_DIGITS digits
+	 */
+	public long getPackedKey() {
 		return key;
 	}
 
+	/**
+	 * Compares the zip code of the collision with a zip code whose code
+	 * (see ZipDictionary.code) is known, with an int comparison when both
+	 * are made of five digits.
+	 *
+	 * @param zip the other zip code
+	 * @param code the code of the other zip code
+	 * @return a negative number, zero or a positive number as the zip code of
+	 *         the collision comes before, is equal to or comes after zip
+	 */
+	public int compareZip(String zip, int code) {
+		if (zipCode != ZipDictionary.NO_CODE && code != ZipDictionary.NO_CODE)
+			return zipCode - code;
+		return this.zip.compareTo(zip);
+	}
+
+	/*
+	 * Compares the keys of two collisions, with a long comparison when both
+	 * are packed.
+	 */
+	private int compareKey(Collision other) {
+		if (key != NO_KEY && other.key != NO_KEY)
+			return Long.compare(key, other.key);
+		return getKey().compareTo(other.getKey());
+	}
+
 	/**
 	 *This method returns the number of people injured
 	 * @return personsInjured number of people injured
@@ -218,12 +493,14 @@ public class Collision implements Comparable<Collision> {
 	@Override
 	public int compareTo(Collision other) {
 		//First compare zip codes
-		return zip.compareTo(other.getZip()) < 0 ? -1
-				: zip.compareTo(other.getZip()) > 0 ? 1
-						//Then compare dates
-						: date.compareTo(other.getDate()) == 0 ? date.compareTo(other.getDate())
-								//Finally compare the keys
-								: key.compareTo(other.getKey()) < 0 ? -1 : key.compareTo(other.getKey()) > 0 ? 1 : 0;
+		int result = compareZip(other.zip, other.zipCode);
+		//Then compare dates
+		if (result == 0)
+			result = date.compareTo(other.getDate());
+		//Finally compare the keys
+		if (result == 0)
+			result = compareKey(other);
+		return result < 0 ? -1 : result > 0 ? 1 : 0;
 	}
 
 	/**
@@ -241,8 +518,8 @@ public class Collision implements Comparable<Collision> {
 		if (other instanceof Collision) {
 			Collision collisionObj = (Collision) other;
 			//First compare zip codes, then dates, then keys
-			return zip.compareTo(collisionObj.getZip()) == 0 ? date.compareTo(collisionObj.getDate()) == 0
-					? key.compareTo(collisionObj.getKey()) == 0 ? true : false : false : false;
+			return compareZip(collisionObj.zip, collisionObj.zipCode) == 0 ? date.compareTo(collisionObj.getDate()) == 0
+					? compareKey(collisionObj) == 0 ? true : false : false : false;
 		} else {
 			return false;
 		}
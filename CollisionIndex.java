@@ -0,0 +1,70 @@
+import java.util.function.Consumer;
+
+/**
+ * This interface is implemented by the indexes that hold the collision
+ * records themselves and can change: besides reports they can add and
+ * remove records, load them in bulk and pass the records of a range to an
+ * action. CollisionsData (the AVL tree) and PersistentCollisionsData
+ * implement it; IndexRegistry creates any index by name.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public interface CollisionIndex extends ReportIndex {
+
+	/**
+	 * Adds a record. A null record is ignored.
+	 *
+	 * @param record the record to add
+	 */
+	void add(Collision record);
+
+	/**
+	 * Adds a batch of records. Null records are skipped.
+	 *
+	 * @param records the records to add
+	 */
+	default void addAll(Collision[] records) {
+		for (Collision record : records)
+			add(record);
+	}
+
+	/**
+	 * Removes a record equal to the given one.
+	 *
+	 * @param record the record to remove
+	 * @return true if a record was removed
+	 */
+	boolean remove(Collision record);
+
+	/**
+	 * Returns the number of records
+	 * @return number of records
+	 */
+	int size();
+
+	/**
+	 * Returns the records in sorted order
+	 * @return the records
+	 */
+	Collision[] toArray();
+
+	/**
+	 * Passes the records of a zip code and date range (both dates included)
+	 * to an action, in date order.
+	 *
+	 * @param zip the zip code
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 * @param action called for every record of the range
+	 * @return number of nodes visited
+	 */
+	int forEachInRange(String zip, Date dateBegin, Date dateEnd, Consumer<Collision> action);
+
+	/**
+	 * Registers a listener that is called after every add and remove.
+	 *
+	 * @param listener the listener
+	 */
+	void addListener(RecordListener listener);
+}
@@ -1,7 +1,16 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * This class contains a main function for running the program. The program asks
@@ -34,36 +43,238 @@ public class CollisionInfo {
 			System.exit(1);
 		}
 
-		// Create a scanner object to open the file
-		Scanner collisionInput = null;
-
-		// Try to open the file, if there are any errors then let the user know
-		// that the file cannot be opened.
+		// Optional settings given after the file name
+		HashMap<String, String> options = parseOptions(args);
+		int threads = Runtime.getRuntime().availableProcessors();
 		try {
-			collisionInput = new Scanner(inputFileName);
+			if (options.containsKey("threads"))
+				threads = Integer.parseInt(options.get("threads"));
+			if (threads < 1)
+				throw new NumberFormatException();
+		} catch (NumberFormatException e) {
+			System.err.println("Usage Error: --threads expects a positive number");
+			System.exit(0);
+		}
+
+		// The index is chosen by name with --index (see IndexRegistry); the
+		// older --columnar, --zipindex, --rollup and --frozen flags name one
+		// too, and --follow needs the persistent tree
+		String indexName = options.containsKey("index") ? options.get("index") : "avl";
+		for (String name : new String[] {"columnar", "zipindex", "rollup", "frozen"}) {
+			if (options.containsKey(name))
+				indexName = name;
+		}
+		if (options.containsKey("follow"))
+			indexName = "persistent";
+		if (!IndexRegistry.contains(indexName)) {
+			System.err.println("Usage Error: --index expects one of " + IndexRegistry.names());
+			System.exit(0);
+		}
+
+		// A snapshot of a previous run can be used instead of the csv file
+		// when --snapshot is given (by default it is the file name followed
+		// by .snapshot). It is only used if it matches the current csv file,
+		// and the chosen index is then created from its records. The off-heap
+		// index never holds the records on the heap, so it does not use one.
+		Path snapshot = null;
+		Collision[] records = null;
+		ReportIndex tree = null;
+		// the tree itself, for the features that change it or read its shape
+		CollisionsData data = null;
+		RollupCube cube = null;
+		long followOffset = Long.MAX_VALUE;
+		if (options.containsKey("snapshot") && indexName.equals("offheap"))
+			System.err.println("Note: --snapshot is ignored with --index offheap");
+		else if (options.containsKey("snapshot") && !options.containsKey("follow")) {
+			String snapshotPath = options.get("snapshot");
+			snapshot = Paths.get(snapshotPath.equals("true") ? path + ".snapshot" : snapshotPath);
+			try {
+				CollisionSnapshot saved = CollisionSnapshot.open(snapshot, inputFileName.toPath());
+				if (saved != null)
+					records = saved.toRecords();
+			} catch (IOException e) {
+				System.err.println("ERROR: the snapshot " + snapshot + " cannot be opened");
+			}
+		}
+
+		// Otherwise create the chosen index from the records of the file. The
+		// file is parsed in parallel chunks; rows that do not hold a valid
+		// record are skipped.
+		// The off-heap index, and the columnar one when no snapshot has to be
+		// written, are loaded straight from the file, so the records never
+		// all live on the heap as objects
+		if (indexName.equals("offheap")) {
+			try {
+				tree = OffHeapCollisions.load(inputFileName.toPath());
+			} catch (IOException e) {
+				System.err.println("ERROR: the file" + path + "cannot be opened");
+				System.exit(2);
+			}
+		} else if (indexName.equals("columnar") && snapshot == null) {
+			try {
+				tree = ColumnarCollisions.load(inputFileName.toPath());
+			} catch (IOException e) {
+				System.err.println("ERROR: the file" + path + "cannot be opened");
+				System.exit(2);
+			}
+		} else if (records != null) {
+			tree = IndexRegistry.create(indexName, records);
+		} else {
+			long sourceSize = 0;
+			long sourceTime = 0;
+			try {
+				// The snapshot is stamped with the file as it was before the
+				// load, so rows appended meanwhile make it stale
+				if (snapshot != null) {
+					sourceSize = Files.size(inputFileName.toPath());
+					sourceTime = Files.getLastModifiedTime(inputFileName.toPath()).toMillis();
+				}
+				// When following the file, load it up to its last complete
+				// line and follow it from there
+				if (options.containsKey("follow"))
+					followOffset = TailFollower.completeLength(inputFileName.toPath());
+				records = ParallelLoader.loadSorted(inputFileName.toPath(), threads, followOffset);
+			} catch (IOException e) {
+				System.err.println("ERROR: the file" + path + "cannot be opened");
+				System.exit(2);
+			}
+			tree = IndexRegistry.create(indexName, records);
 
-		} catch (FileNotFoundException e) {
-			System.err.println("ERROR: the file" + path + "cannot be opened");
-			System.exit(2);
+			// Save a snapshot for the next start
+			if (snapshot != null) {
+				try {
+					CollisionSnapshot.write(snapshot, sourceSize, sourceTime, records);
+				} catch (IOException e) {
+					System.err.println("ERROR: the snapshot " + snapshot + " cannot be written");
+				}
+			}
 		}
+		records = null;
 
-		// Create a CollisionsData object that will store collision records
-		CollisionsData tree = new CollisionsData();
+		if (tree instanceof CollisionsData)
+			data = (CollisionsData) tree;
+		else if (tree instanceof RollupCube) {
+			cube = (RollupCube) tree;
+			data = cube.getTree();
+		}
+		PersistentCollisionsData live = tree instanceof PersistentCollisionsData ? (PersistentCollisionsData) tree
+				: null;
 
-		// While the scanner reading the file has input to give, read the lines
-		while (collisionInput.hasNextLine()) {
-			String textLine = collisionInput.nextLine();
-			// Send the lines read in by the scanner to the splitCSVLine method
-			// This will return an ArrayList
-			ArrayList<String> entries = splitCSVLine(textLine);
+		// The size and height of the tree are read by the metrics; with
+		// --metrics [seconds] all metrics are printed periodically
+		if (data != null) {
+			Metrics.registerGauge("tree.size", data::size);
+			Metrics.registerGauge("tree.height", data::height);
+		} else if (live != null) {
+			Metrics.registerGauge("tree.size", live::size);
+			Metrics.registerGauge("tree.height", live::height);
+		}
+		if (options.containsKey("metrics")) {
+			String period = options.get("metrics");
 			try {
-				Collision collionRecord = new Collision(entries);
-				tree.add(collionRecord);
+				long seconds = period.equals("true") ? 60 : Long.parseLong(period);
+				if (seconds < 1)
+					throw new NumberFormatException();
+				Metrics.startDump(System.err, seconds);
+			} catch (NumberFormatException e) {
+				System.err.println("Usage Error: --metrics expects a positive number of seconds");
+				System.exit(0);
+			}
+		}
+
+		// With --cache [entries] repeated reports are answered from a cache
+		// that drops the results of a zip code when its records change
+		if (options.containsKey("cache")) {
+			String entries = options.get("cache");
+			try {
+				ReportCache cache = new ReportCache(tree, entries.equals("true") ? 10000 : Integer.parseInt(entries));
+				if (data != null)
+					data.addListener(cache);
+				else if (live != null)
+					live.addListener(cache);
+				Metrics.registerGauge("cache.hits", cache::getHits);
+				Metrics.registerGauge("cache.misses", cache::getMisses);
+				Metrics.registerGauge("cache.evictions", cache::getEvictions);
+				Metrics.registerGauge("cache.invalidations", cache::getInvalidations);
+				Metrics.registerGauge("cache.size", cache::size);
+				tree = cache;
 			} catch (IllegalArgumentException e) {
-				continue;
+				System.err.println("Usage Error: --cache expects a positive number of entries");
+				System.exit(0);
 			}
 		}
 
+		// With --series [day|week|month] the prompt prints the totals of a zip
+		// code per day, week or month instead of its report, as csv or with
+		// --format json as JSON
+		TimeSeries.Interval series = null;
+		if (options.containsKey("series")) {
+			String interval = options.get("series");
+			try {
+				series = interval.equals("true") ? TimeSeries.Interval.DAY : TimeSeries.Interval.parse(interval);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Usage Error: --series expects day, week or month");
+				System.exit(0);
+			}
+			if (data == null) {
+				System.err.println("Usage Error: --series needs the default tree index");
+				System.exit(0);
+			}
+		}
+
+		// With --follow [milliseconds] keep adding the rows appended to the
+		// file while reports are answered
+		if (options.containsKey("follow")) {
+			String interval = options.get("follow");
+			try {
+				long pollMillis = interval.equals("true") ? 1000 : Long.parseLong(interval);
+				if (pollMillis < 1)
+					throw new NumberFormatException();
+				new TailFollower(inputFileName.toPath(), live, followOffset, pollMillis).start();
+			} catch (NumberFormatException e) {
+				System.err.println("Usage Error: --follow expects a positive number of milliseconds");
+				System.exit(0);
+			}
+		}
+
+		// In batch mode answer the queries of a file (or of System.in for -)
+		// and exit instead of prompting the user
+		if (options.containsKey("batch")) {
+			String queries = options.get("batch");
+			String format = options.containsKey("format") ? options.get("format") : "text";
+			try {
+				BufferedReader input = queries.equals("-") || queries.equals("true")
+						? new BufferedReader(new InputStreamReader(System.in))
+						: Files.newBufferedReader(Paths.get(queries));
+				PrintWriter output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+				new BatchQuery(tree, format, threads).run(input, output);
+				input.close();
+			} catch (IllegalArgumentException e) {
+				System.err.println("Usage Error: " + e.getMessage());
+			} catch (IOException e) {
+				System.err.println("ERROR: the queries in " + queries + " cannot be read");
+				System.exit(2);
+			}
+			return;
+		}
+
+		// In server mode answer reports over HTTP until the program is stopped
+		if (options.containsKey("serve")) {
+			String port = options.get("serve");
+			try {
+				ReportServer server = new ReportServer(tree, port.equals("true") ? 8080 : Integer.parseInt(port));
+				server.start();
+				Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+				System.out.println("Serving reports on http://localhost:" + server.getPort() + "/report");
+			} catch (NumberFormatException e) {
+				System.err.println("Usage Error: --serve expects a port number");
+			} catch (IOException e) {
+				System.err.println("ERROR: cannot listen on port " + port);
+				System.exit(2);
+			}
+			return;
+		}
+
 		// Datafields that will hold input from the user
 		// These will then be sent as input into the getReport function
 		String zip;
@@ -80,8 +291,38 @@ public class CollisionInfo {
 
 		// While zip doesn't have quit continue asking for input
 		while (!zip.equalsIgnoreCase("quit")) {
+			// A list of zip codes (10001,10002) or a prefix (112*) is reported
+			// per zip code and combined, and "top [k] [counter]" ranks all zip
+			// codes by a counter (by default the 20 with the most collisions).
+			// Both are answered by the tree or the rollup cube.
+			boolean top = zip.toLowerCase().startsWith("top");
+			boolean grouped = top || ZipSelection.isGroup(zip);
+			ZipSelection group = null;
+			Counter counter = null;
+			int topK = 0;
+			if (grouped) {
+				try {
+					if (top) {
+						String[] words = zip.trim().split("\\s+", 3);
+						topK = words.length > 1 ? Integer.parseInt(words[1]) : 20;
+						if (topK < 1)
+							throw new NumberFormatException();
+						counter = words.length > 2 ? Counter.parse(words[2]) : Counter.COLLISIONS;
+						group = ZipSelection.all();
+					} else {
+						group = ZipSelection.parse(zip);
+					}
+				} catch (IllegalArgumentException e) {
+					System.err.println(top ? "Usage: top [number of zip codes] [counter]" : "Inavlid Zip Code");
+				}
+				if (group != null && data == null && cube == null) {
+					System.err.println("Reports for several zip codes need the default tree index or --rollup");
+					group = null;
+				}
+			}
+
 			// If the zipcode is valid ask the user for dates
-			if ((zip.length() == 5) && (zip.matches(".*\\d+.*"))) {
+			if (group != null || !grouped && (zip.length() == 5) && (zip.matches(".*\\d+.*"))) {
 				System.out.println("Enter a start date (MM/DD/YYYY):\n");
 				dateBegin = userInput.nextLine();
 				System.out.println("Enter an end date (MM/DD/YYYY):\n");
@@ -91,7 +332,25 @@ public class CollisionInfo {
 				try {
 					dateFormatBegin = new Date(dateBegin);
 					dateFormatEnd = new Date(dateEnd);
-					System.out.println(tree.getReport(zip, dateFormatBegin, dateFormatEnd) + "\n");
+					if (group != null) {
+						GroupReport report = cube != null ? cube.getTotals(group, dateFormatBegin, dateFormatEnd)
+								: data.getTotals(group, dateFormatBegin, dateFormatEnd);
+						if (counter != null)
+							System.out.println(new ZipRanking(report, counter, topK, dateFormatBegin, dateFormatEnd));
+						else
+							System.out.println(report + "\n");
+					}
+					else if (series != null) {
+						TimeSeries values = TimeSeries.of(data, zip, dateFormatBegin, dateFormatEnd, series);
+						PrintWriter output = new PrintWriter(System.out);
+						if ("json".equals(options.get("format")))
+							values.writeJson(output);
+						else
+							values.writeCsv(output);
+						System.out.println();
+					}
+					else
+						System.out.println(tree.getReport(zip, dateFormatBegin, dateFormatEnd) + "\n");
 				}
 
 				//If the inputs are invalid then let the user know
@@ -101,7 +360,7 @@ public class CollisionInfo {
 			}
 
 			//If the zip code is invalid let the user know
-			else {
+			else if (!grouped) {
 
 				System.err.println("Inavlid Zip Code");
 			}
@@ -115,6 +374,28 @@ public class CollisionInfo {
 		userInput.close();
 	}
 
+	/**
+	 * Collects the options that follow the file name on the command line.
+	 * Options have the form --name value; an option that is not followed by a
+	 * value is stored as "true".
+	 *
+	 * @param args the command line arguments
+	 * @return map from option name (without the dashes) to its value
+	 */
+	static HashMap<String, String> parseOptions(String[] args) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].startsWith("--"))
+				continue;
+			String name = args[i].substring(2);
+			if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+				options.put(name, args[++i]);
+			else
+				options.put(name, "true");
+		}
+		return options;
+	}
+
 	/**
 	 * Splits the given line of a CSV file according to commas and double quotes
 	 * (double quotes are used to surround multi-word entries so that they may contain commas)
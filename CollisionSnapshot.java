@@ -0,0 +1,347 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class writes the loaded collision records to a binary snapshot file
+ * and reads them back from the memory mapped snapshot, so a restart does not
+ * have to parse the csv file: toRecords rebuilds the records for any index,
+ * and the snapshot can also answer reports in place.
+ *
+ * The snapshot remembers the size and modification time of the csv file it
+ * was made from; open returns null when the snapshot is missing, was made
+ * from a different version of the file, or has an unknown format version,
+ * and the caller then loads the csv file instead.
+ *
+ * Layout (all numbers big-endian), records sorted by zip, date and key:
+ *
+ *   header     magic, version, source size, source modification time,
+ *              number of records, number of zips, number of other keys
+ *   zips       5 chars per distinct zip code, sorted
+ *   zip starts index of the first record of every zip, plus the end
+ *   dates      packed date of every record
+ *   keys       key of every record (see ColumnarCollisions.encodeKey)
+ *   sums       for each of the 8 counters, the running sum over the records
+ *              (n + 1 ints, the counters of record i are sums[i + 1] - sums[i])
+ *   other keys the keys that are not packed (length and chars)
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class CollisionSnapshot implements ReportIndex {
+
+	static final int MAGIC = 0x434C534E;
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 40;
+	static final int ZIP_LENGTH = 5;
+	static final int COUNTERS = 8;
+
+	// sections of the mapped file
+	private final ByteBuffer zips;
+	private final ByteBuffer zipStarts;
+	private final ByteBuffer dates;
+	private final ByteBuffer keys;
+	private final ByteBuffer[] sums = new ByteBuffer[COUNTERS];
+	private final String[] otherKeys;
+	private final int size;
+	private final int zipCount;
+
+	/*
+	 * Maps the sections of an open snapshot file.
+	 */
+	private CollisionSnapshot(FileChannel channel, int size, int zipCount, int otherKeyCount) throws IOException {
+		this.size = size;
+		this.zipCount = zipCount;
+		long position = HEADER_SIZE;
+		zips = map(channel, position, 2L * ZIP_LENGTH * zipCount);
+		position += 2L * ZIP_LENGTH * zipCount;
+		zipStarts = map(channel, position, 4L * (zipCount + 1));
+		position += 4L * (zipCount + 1);
+		dates = map(channel, position, 4L * size);
+		position += 4L * size;
+		keys = map(channel, position, 8L * size);
+		position += 8L * size;
+		for (int k = 0; k < COUNTERS; k++) {
+			sums[k] = map(channel, position, 4L * (size + 1));
+			position += 4L * (size + 1);
+		}
+
+		// The keys that are not numbers are few; read them into memory
+		ByteBuffer other = map(channel, position, channel.size() - position);
+		otherKeys = new String[otherKeyCount];
+		for (int i = 0; i < otherKeyCount; i++) {
+			char[] chars = new char[other.getInt()];
+			for (int c = 0; c < chars.length; c++)
+				chars[c] = other.getChar();
+			otherKeys[i] = new String(chars);
+		}
+	}
+
+	/*
+	 * Maps one read-only section of the file.
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Opens a snapshot made from the given csv file.
+	 *
+	 * @param snapshot the snapshot file
+	 * @param source the csv file the snapshot has to match
+	 * @return the mapped snapshot, or null if the snapshot is missing, stale or
+	 *         not readable
+	 * @throws IOException if the source file cannot be read
+	 */
+	public static CollisionSnapshot open(Path snapshot, Path source) throws IOException {
+		long sourceSize = Files.size(source);
+		long sourceTime = Files.getLastModifiedTime(source).toMillis();
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE)
+				return null;
+			ByteBuffer header = map(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != sourceSize
+					|| header.getLong() != sourceTime)
+				return null;
+			int size = header.getInt();
+			int zipCount = header.getInt();
+			int otherKeyCount = header.getInt();
+			long expected = HEADER_SIZE + 2L * ZIP_LENGTH * zipCount + 4L * (zipCount + 1) + 12L * size
+					+ 4L * COUNTERS * (size + 1);
+			if (size < 0 || zipCount < 0 || otherKeyCount < 0 || channel.size() < expected)
+				return null;
+			// the mappings stay valid after the channel is closed
+			return new CollisionSnapshot(channel, size, zipCount, otherKeyCount);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the given records. The file is written under a
+	 * temporary name and then moved into place, so a reader never sees a
+	 * partly written snapshot.
+	 *
+	 * The size and modification time of the csv file have to be read before
+	 * the records are loaded from it: if rows are appended meanwhile, the
+	 * snapshot then does not match the grown file and is not used.
+	 *
+	 * @param snapshot the snapshot file
+	 * @param sourceSize size of the csv file before the records were loaded
+	 * @param sourceTime modification time of the csv file (in milliseconds)
+	 *            before the records were loaded
+	 * @param records the records, in any order
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public static void write(Path snapshot, long sourceSize, long sourceTime, Collision[] records)
+			throws IOException {
+		Collision[] sorted = CollisionsData.sortedCopy(records);
+
+		ArrayList<String> zipList = new ArrayList<String>();
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || !sorted[i].getZip().equals(sorted[i - 1].getZip())) {
+				zipList.add(sorted[i].getZip());
+				starts.add(i);
+			}
+		}
+		starts.add(sorted.length);
+		ArrayList<String> otherKeys = new ArrayList<String>();
+		long[] encodedKeys = new long[sorted.length];
+		for (int i = 0; i < sorted.length; i++)
+			encodedKeys[i] = ColumnarCollisions.encodeKey(sorted[i], otherKeys);
+
+		Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceTime);
+			out.writeInt(sorted.length);
+			out.writeInt(zipList.size());
+			out.writeInt(otherKeys.size());
+			out.writeInt(0);
+			for (String zip : zipList)
+				out.writeChars(zip);
+			for (int start : starts)
+				out.writeInt(start);
+			for (Collision record : sorted)
+				out.writeInt(record.getDate().packed());
+			for (long key : encodedKeys)
+				out.writeLong(key);
+			for (int k = 0; k < COUNTERS; k++) {
+				int sum = 0;
+				out.writeInt(sum);
+				for (Collision record : sorted) {
+					sum += counter(record, k);
+					out.writeInt(sum);
+				}
+			}
+			for (String key : otherKeys) {
+				out.writeInt(key.length());
+				out.writeChars(key);
+			}
+		}
+		Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * Returns counter k of a record: pedestrians, cyclists and motorists
+	 * killed, pedestrians, cyclists and motorists injured (the order of
+	 * getTotals), then persons killed and persons injured.
+	 */
+	private static int counter(Collision record, int k) {
+		switch (k) {
+		case 0: return record.getPedestriansKilled();
+		case 1: return record.getCyclistsKilled();
+		case 2: return record.getMotoristsKilled();
+		case 3: return record.getPedestriansInjured();
+		case 4: return record.getCyclistsInjured();
+		case 5: return record.getMotoristsInjured();
+		case 6: return record.getPersonsKilled();
+		default: return record.getPersonsInjured();
+		}
+	}
+
+	/**
+	 * Returns the number of records in the snapshot
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Rebuilds the records of the snapshot, in sorted order, so that any
+	 * index can be created from them without parsing the csv file.
+	 *
+	 * @return the records
+	 */
+	public Collision[] toRecords() {
+		Collision[] records = new Collision[size];
+		// the order of the counters of the Collision constructor
+		int[] order = {7, 6, 0, 1, 2, 3, 4, 5};
+		int[] counters = new int[COUNTERS];
+		for (int code = 0; code < zipCount; code++) {
+			char[] chars = new char[ZIP_LENGTH];
+			for (int c = 0; c < ZIP_LENGTH; c++)
+				chars[c] = zips.getChar(2 * (ZIP_LENGTH * code + c));
+			String zip = new String(chars);
+			for (int i = zipStarts.getInt(4 * code); i < zipStarts.getInt(4 * (code + 1)); i++) {
+				for (int k = 0; k < COUNTERS; k++)
+					counters[k] = sums[order[k]].getInt(4 * (i + 1)) - sums[order[k]].getInt(4 * i);
+				long key = keys.getLong(8 * i);
+				records[i] = key >= 0 ? new Collision(zip, Date.fromPacked(dates.getInt(4 * i)), key, null, counters)
+						: new Collision(zip, Date.fromPacked(dates.getInt(4 * i)), Collision.NO_KEY,
+								otherKeys[(int) (-1 - key)], counters);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the key of record i (in sorted order)
+	 * @param i index of the record
+	 * @return the key
+	 */
+	public String getKey(int i) {
+		return ColumnarCollisions.decodeKey(keys.getLong(8 * i), Arrays.asList(otherKeys));
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range, reading the mapped sections in place.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		int code = findZip(zip);
+		if (code < 0 || dateBegin.compareTo(dateEnd) > 0)
+			return report;
+
+		int from = zipStarts.getInt(4 * code);
+		int to = zipStarts.getInt(4 * (code + 1));
+		int first = firstOnOrAfter(from, to, dateBegin.packed());
+		int last = firstOnOrAfter(first, to, dateEnd.packed() + 1);
+		report[0] = last - first;
+		for (int k = 0; k < 6; k++)
+			report[k + 1] = sums[k].getInt(4 * last) - sums[k].getInt(4 * first);
+		return report;
+	}
+
+	/*
+	 * Finds the code (index) of a zip by binary search over the zip section.
+	 *
+	 * @return the code, or -1 if the zip is not in the snapshot
+	 */
+	private int findZip(String zip) {
+		if (zip.length() != ZIP_LENGTH)
+			return -1;
+		int from = 0;
+		int to = zipCount - 1;
+		while (from <= to) {
+			int middle = (from + to) >>> 1;
+			int result = 0;
+			for (int c = 0; c < ZIP_LENGTH && result == 0; c++)
+				result = zips.getChar(2 * (ZIP_LENGTH * middle + c)) - zip.charAt(c);
+			if (result < 0)
+				from = middle + 1;
+			else if (result > 0)
+				to = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/*
+	 * Finds the first record between from and to whose date is not before
+	 * the given packed date.
+	 *
+	 * @return index of the record, or to if there is none
+	 */
+	private int firstOnOrAfter(int from, int to, int date) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (dates.getInt(4 * middle) < date)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+		return from;
+	}
+}
@@ -1,3 +1,9 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
 /**
  * This class stores all the collision objects into an AVL tree.
  * It provides methods to add and remove into the AVL tree by balancing the tree.
@@ -10,13 +16,15 @@
  * @version 12/11/2017
  */
 
-public class CollisionsData {
+public class CollisionsData implements CollisionIndex {
 	// root of the tree
 	protected Node root;
 	// current number of nodes in the tree
 	protected int numOfElements;
-	//helper variable used by the remove methods
-	private boolean found;
+	// notified after every add and remove
+	private final CopyOnWriteArrayList<RecordListener> listeners = new CopyOnWriteArrayList<RecordListener>();
+	// stack of the nodes visited by add and remove, reused between calls
+	private final Path path = new Path();
 
 	/*
 	 * Default constructor that creates an empty tree.
@@ -27,116 +35,202 @@ public class CollisionsData {
 	}
 
 	/*
-	 * Add the given data item to the tree. If item is null, the tree does not
-	 * change. If item already exists, the tree does not change.
+	 * Creates a tree holding all the given items. The items are sorted once
+	 * (the sort is skipped when they already are) and the tree is built
+	 * bottom up as a perfectly balanced AVL tree in linear time. Null items
+	 * are skipped. The tree can be changed with add and remove afterwards.
 	 *
-	 * @param item the new element to be added to the tree
+	 * @param items the records to be stored in the tree
 	 */
-	public void add(Collision item) {
-		if (item == null)
-			return;
-		root = add (root, item);
-
+	public CollisionsData(Collision[] items) {
+		Collision[] sorted = sortedCopy(items);
+		root = build(sorted, 0, sorted.length - 1);
+		numOfElements = sorted.length;
 	}
 
 	/*
-	 * Actual recursive implementation of add.
+	 * Returns the non-null items in sorted order, in a new array so that the
+	 * caller's array is not reordered. The sort is skipped when the items
+	 * already are in order.
 	 *
-	 * @param node, item the new element to be added to the tree and root of tree
-	 * @return node node added or the modified subtree
+	 * @param items the records to sort
+	 * @return sorted copy of the non-null records
 	 */
-	private Node add(Node node, Collision item) {
-		// Perform the actual recursive BST add.
-		if (node == null) {
-			numOfElements++;
-			return new Node(item);
+	static Collision[] sortedCopy(Collision[] items) {
+		Collision[] sorted = new Collision[items.length];
+		int count = 0;
+		for (Collision item : items) {
+			if (item != null)
+				sorted[count++] = item;
 		}
+		if (count < sorted.length)
+			sorted = Arrays.copyOf(sorted, count);
+
+		// Sort only if the items are not in order yet
+		for (int i = 1; i < count; i++) {
+			if (sorted[i - 1].compareTo(sorted[i]) > 0) {
+				Arrays.sort(sorted);
+				break;
+			}
+		}
+		return sorted;
+	}
 
-		//Compare the node data and the item data to determine
-		//direction of traversal
-		if (node.data.compareTo(item) > 0)
-			node.left = add(node.left, item);
-		else if (node.data.compareTo(item) <= 0)
-			node.right = add(node.right, item);
-
-		// Update the height of parent/ancestor.
+	/*
+	 * Builds a perfectly balanced subtree from the sorted items between
+	 * indexes first and last (inclusive), using the middle item as the root.
+	 *
+	 * @param items sorted items
+	 * @param first index of the first item of the subtree
+	 * @param last index of the last item of the subtree
+	 * @return root of the subtree, or null if the range is empty
+	 */
+	private Node build(Collision[] items, int first, int last) {
+		if (first > last)
+			return null;
+		int middle = (first + last) >>> 1;
+		Node node = new Node(items[middle]);
+		node.left = build(items, first, middle - 1);
+		node.right = build(items, middle + 1, last);
 		updateHeight(node);
+		return node;
+	}
 
-		// Determine if the insertion led to imbalance.
-		int balanceFactor = getBalanceFactor(node);
-
-		// Re-balance the AVL tree if an imbalance occurred.
-		if(balanceFactor > 1) {
-			if(getBalanceFactor(node.right) >= 0) return rotateRightRight(node);
-
-			return rotateRightLeft(node);
-		}
-		else if(balanceFactor < -1) {
-			if(getBalanceFactor(node.left) <= 0) return rotateLeftLeft(node);
-
-			return rotateLeftRight(node);
+	/*
+	 * Add the given data item to the tree. If item is null, the tree does not
+	 * change. Items that compare equal to an item of the tree are added after
+	 * it.
+	 *
+	 * The tree is walked down with one comparison per level and the path is
+	 * kept on an explicit stack, which is then walked back up to update the
+	 * heights and totals and rebalance; no recursion is involved.
+	 *
+	 * @param item the new element to be added to the tree
+	 */
+	public void add(Collision item) {
+		if (item == null)
+			return;
+		for (RecordListener listener : listeners)
+			listener.recordChanging(item);
+		path.depth = 0;
+		Node node = root;
+		while (node != null) {
+			boolean left = item.compareTo(node.data) < 0;
+			path.push(node, left);
+			node = left ? node.left : node.right;
 		}
-
-		// If no imbalance, then return the node.
-		return node;
+		numOfElements++;
+		root = rebalancePath(path, new Node(item));
+		for (RecordListener listener : listeners)
+			listener.recordAdded(item);
 	}
 
 	/*
 	 * Remove the item from the tree. If item is null the tree remains unchanged. If
 	 * item is not found in the tree, the tree remains unchanged.
 	 *
+	 * Like add, the path is kept on an explicit stack. A node with two
+	 * children takes the record of its predecessor, and the predecessor's
+	 * node (which has no right child) is removed instead.
+	 *
 	 * @param target the item to be removed from this tree
 	 * @return boolean true, false based on if the item was removed
 	 */
 	public boolean remove(Collision target)
 	{
-		root = recRemove(target, root);
-		return found;
-	}
+		if (target == null)
+			return false;
+		for (RecordListener listener : listeners)
+			listener.recordChanging(target);
+		path.depth = 0;
+		Node node = root;
+		int result;
+		while (node != null && (result = target.compareTo(node.data)) != 0) {
+			path.push(node, result < 0);
+			node = result < 0 ? node.left : node.right;
+		}
+		if (node == null) {
+			for (RecordListener listener : listeners)
+				listener.recordUnchanged(target);
+			return false;
+		}
 
+		Node replacement;
+		if (node.left == null)
+			replacement = node.right;
+		else if (node.right == null)
+			replacement = node.left;
+		else {
+			// Walk to the predecessor: left once, then right to the end
+			path.push(node, true);
+			Node predecessor = node.left;
+			while (predecessor.right != null) {
+				path.push(predecessor, false);
+				predecessor = predecessor.right;
+			}
+			node.data = predecessor.data;
+			replacement = predecessor.left;
+		}
+		numOfElements--;
+		root = rebalancePath(path, replacement);
+		for (RecordListener listener : listeners)
+			listener.recordRemoved(target);
+		return true;
+	}
 
 	/*
-	 * Find the node to remove and re-balance the AVL tree
-	 *   if imbalanced.
+	 * Registers a listener that is called before and after every add and
+	 * remove.
 	 *
-	 * @param target the item to be removed from this tree
+	 * @param listener the listener
+	 */
+	public void addListener(RecordListener listener) {
+		listeners.add(listener);
+	}
+
+	/*
+	 * Walks a path back up from the bottom: the subtree below the last node
+	 * of the path is replaced by child, and every node of the path gets its
+	 * height and totals updated and is rebalanced.
 	 *
-	 * @return node  New root after deletion and re-balance.
+	 * @param path  nodes from the root down
+	 * @param child  new subtree below the last node
+	 * @return Node  new root of the tree
 	 */
-	private Node recRemove(Collision target, Node node)
-	{
-		//Check if the node is null
-		if (node == null)
-			found = false;
-		//Compare the item to node data to determine direction of traversal
-		else if (target.compareTo(node.data) < 0)
-			node.left = recRemove(target, node.left);
-		else if (target.compareTo(node.data) > 0)
-			node.right = recRemove(target, node.right );
-		else {
-			node = removeNode(node);
-			found = true;
+	private Node rebalancePath(Path path, Node child) {
+		for (int i = path.depth - 1; i >= 0; i--) {
+			Node node = path.nodes[i];
+			if (path.wentLeft[i])
+				node.left = child;
+			else
+				node.right = child;
+			updateHeight(node);
+			child = rebalance(node);
+			path.nodes[i] = null;
 		}
+		path.depth = 0;
+		return child;
+	}
 
-		if(node == null) return node;
-
-		// Update Height of the current subtree.
-		updateHeight(node);
-
-		// Determine if the deletion led to imbalance.
+	/*
+	 * Rotates the subtree if its two sides differ in height by more than one.
+	 *
+	 * @param node  root of the subtree, with up to date height.
+	 * @return Node  new root of the subtree.
+	 */
+	private Node rebalance(Node node) {
+		// Determine if the change led to imbalance.
 		int balanceFactor = getBalanceFactor(node);
 
 		// Re-balance the AVL tree if an imbalance occurred.
 		if(balanceFactor > 1) {
 			if(getBalanceFactor(node.right) >= 0) return rotateRightRight(node);
 
-			//node.left = rotateLeft(node.left);
 			return rotateRightLeft(node);
 		}
 		else if(balanceFactor < -1) {
 			if(getBalanceFactor(node.left) <= 0) return rotateLeftLeft(node);
 
-			//node.right = rotateRightLeft(node.right);
 			return rotateLeftRight(node);
 		}
 
@@ -144,54 +238,59 @@ public class CollisionsData {
 		return node;
 	}
 
+
+
 	/*
-	 * Actual recursive implementation of remove method: perform the removal.
+	 * Determines the number of elements stored in this BST.
 	 *
-	 * @param target the item to be removed from this tree
-	 * @return a reference to the node itself, or to the modified subtree
+	 * @return numberOfElements number of elements in this BST
 	 */
-	private Node removeNode(Node node)
-	{
-		Collision data;
-		if (node.left == null)
-			return node.right ;
-		else if (node.right  == null)
-			return node.left;
-		else {
-			data = getPredecessor(node.left);
-			node.data = data;
-			node.left = recRemove(data, node.left);
-			return node;
-		}
+	public int size() {
+		return numOfElements;
 	}
 
 	/*
-	 * Returns the information held in the rightmost node of subtree
+	 * Determines the height of this tree.
 	 *
-	 * @param subtree root of the subtree within which to search for the rightmost node
-	 * @return returns data stored in the rightmost node of subtree
-	 * @throws NullPointerException
+	 * @return height of the root, -1 for an empty tree
 	 */
-	private Collision getPredecessor(Node subtree) throws NullPointerException{
-		//Check for null subtree
-		if (subtree == null) {
-			throw new NullPointerException("getPredecessor called with an empty subtree");
-		}
-		Node temp = subtree;
-		while (temp.right  != null)
-			temp = temp.right;
-		return temp.data;
+	public int height() {
+		return root == null ? -1 : root.height;
 	}
 
-
+	/*
+	 * Returns the records of this tree in sorted order.
+	 *
+	 * @return array with the records of an inorder traversal
+	 */
+	public Collision[] toArray() {
+		Collision[] items = new Collision[numOfElements];
+		inOrderCollect(root, items, 0);
+		return items;
+	}
 
 	/*
-	 * Determines the number of elements stored in this BST.
+	 * Actual implementation of toArray: an inorder traversal with an explicit
+	 * stack.
 	 *
-	 * @return numberOfElements number of elements in this BST
+	 * @param tree the root of the current subtree
+	 * @param items the array being filled
+	 * @param index position of the first record of the subtree in items
+	 * @return position after the last record of the subtree
 	 */
-	public int size() {
-		return numOfElements;
+	private int inOrderCollect(Node tree, Collision[] items, int index) {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		while (tree != null || !stack.isEmpty()) {
+			// Go as far left as possible, then visit and turn right
+			while (tree != null) {
+				stack.push(tree);
+				tree = tree.left;
+			}
+			tree = stack.pop();
+			items[index++] = tree.data;
+			tree = tree.right;
+		}
+		return index;
 	}
 
 	/*
@@ -201,47 +300,40 @@ public class CollisionsData {
 	 */
 	public String toString() {
 		StringBuilder s = new StringBuilder();
-		inOrderPrint(root, s);
+		for (Collision item : toArray())
+			s.append(item.toString() + "  ");
 		return s.toString();
 	}
 
-	/*
-	 * Actual recursive implementation of inorder traversal to produce string
-	 * representation of this tree.
-	 *
-	 * @param tree the root of the current subtree
-	 * @param s the string that accumulated the string representation of this BST
-	 */
-	private void inOrderPrint(Node tree, StringBuilder s) {
-		if (tree != null) {
-			inOrderPrint(tree.left, s);
-			s.append(tree.data.toString() + "  ");
-			inOrderPrint(tree.right , s);
-		}
-	}
-
 	/*
 	 * Produces tree like string representation of this BST.
 	 * @return string containing tree-like representation of this BST.
 	 */
 	public String toStringTreeFormat() {
 		StringBuilder s = new StringBuilder();
-		preOrderPrint(root, 0, s);
+		preOrderPrint(root, s);
 		return s.toString();
 	}
 
 	/*
-	 * Actual recursive implementation of preorder traversal to produce tree-like string
-	 * representation of this tree.
+	 * Actual implementation of the preorder traversal that produces the
+	 * tree-like string representation of this tree, with an explicit stack of
+	 * nodes and their levels (depths) to determine the indentation of each
+	 * item. Empty subtrees are shown as null.
 	 *
-	 * @param tree the root of the current subtree
-	 * @param level level (depth) of the current recursive call in the tree to
-	 *   determine the indentation of each item
+	 * @param tree the root of the tree
 	 * @param output the string that accumulated the string representation of this
 	 *   BST
 	 */
-	private void preOrderPrint(Node tree, int level, StringBuilder output) {
-		if (tree != null) {
+	private void preOrderPrint(Node tree, StringBuilder output) {
+		// ArrayList, as the stack also holds the empty (null) subtrees
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<Integer> levels = new ArrayList<Integer>();
+		nodes.add(tree);
+		levels.add(0);
+		while (!nodes.isEmpty()) {
+			Node node = nodes.remove(nodes.size() - 1);
+			int level = levels.remove(levels.size() - 1);
 			String spaces = "\n";
 			if (level > 0) {
 				for (int i = 0; i < level - 1; i++)
@@ -249,20 +341,16 @@ public class CollisionsData {
 				spaces += "|--";
 			}
 			output.append(spaces);
-			output.append(tree.data.toString());
-			preOrderPrint(tree.left, level + 1, output);
-			preOrderPrint(tree.right , level + 1, output);
-		}
-		// uncomment the part below to show "null children" in the output
-		else {
-			String spaces = "\n";
-			if (level > 0) {
-				for (int i = 0; i < level - 1; i++)
-					spaces += "   ";
-				spaces += "|--";
+			if (node == null) {
+				output.append("null");
+				continue;
 			}
-			output.append(spaces);
-			output.append("null");
+			output.append(node.data.toString());
+			// right is pushed first so that left is printed first
+			nodes.add(node.right);
+			levels.add(level + 1);
+			nodes.add(node.left);
+			levels.add(level + 1);
 		}
 	}
 
@@ -280,7 +368,10 @@ public class CollisionsData {
 	}
 
 	/*
-	 * Updates the height of the current subtree.
+	 * Updates the height and the subtree totals of the current subtree.
+	 * Both only depend on the children, so every place that changes the
+	 * children of a node (add, remove and the rotations) calls this on the
+	 * node afterwards, bottom up.
 	 *
 	 * @param tree  the root of the current subtree.
 	 */
@@ -289,6 +380,7 @@ public class CollisionsData {
 		if (subtree == null) {
 			return;
 		}
+		updateTotals(subtree);
 		//If we hit a leaf return 0
 		if (subtree.left == null && subtree.right == null) subtree.height = 0;
 		//If one of the subtree is null then return the height of the other +1
@@ -300,6 +392,43 @@ public class CollisionsData {
 
 
 
+	/*
+	 * Recomputes the totals of a node from its own record and the totals of
+	 * its children.
+	 *
+	 * @param subtree  the root of the current subtree.
+	 */
+	private void updateTotals(Node subtree) {
+		Collision data = subtree.data;
+		subtree.count = 1;
+		subtree.pedestriansKilled = data.getPedestriansKilled();
+		subtree.cyclistsKilled = data.getCyclistsKilled();
+		subtree.motoristsKilled = data.getMotoristsKilled();
+		subtree.pedestriansInjured = data.getPedestriansInjured();
+		subtree.cyclistsInjured = data.getCyclistsInjured();
+		subtree.motoristsInjured = data.getMotoristsInjured();
+		addTotals(subtree, subtree.left);
+		addTotals(subtree, subtree.right);
+	}
+
+	/*
+	 * Adds the totals of child to the totals of node.
+	 *
+	 * @param node  the node being updated.
+	 * @param child  one of its children, may be null.
+	 */
+	private void addTotals(Node node, Node child) {
+		if (child == null)
+			return;
+		node.count += child.count;
+		node.pedestriansKilled += child.pedestriansKilled;
+		node.cyclistsKilled += child.cyclistsKilled;
+		node.motoristsKilled += child.motoristsKilled;
+		node.pedestriansInjured += child.pedestriansInjured;
+		node.cyclistsInjured += child.cyclistsInjured;
+		node.motoristsInjured += child.motoristsInjured;
+	}
+
 	/*
 	 * Rotates the subtree rooted at tree to left.
 	 *
@@ -309,6 +438,7 @@ public class CollisionsData {
 	 */
 
 	private Node rotateLeftLeft(Node tree) {
+		Metrics.rotationsLeftLeft.increment();
 		Node leftChild = tree.left;
 		tree.left = leftChild.right;
 		leftChild.right = tree;
@@ -329,6 +459,7 @@ public class CollisionsData {
 	 * @return Node  new root after the rotation.
 	 */
 	private Node rotateRightRight(Node tree) {
+		Metrics.rotationsRightRight.increment();
 		Node RightChild = tree.right;
 		tree.right = RightChild.left;
 		RightChild.left = tree;
@@ -350,6 +481,7 @@ public class CollisionsData {
 	 * @return Node  new root after the rotation.
 	 */
 	private Node rotateLeftRight(Node tree) {
+		Metrics.rotationsLeftRight.increment();
 		Node leftChild = tree.left;
 		Node rightTreeofLeftChild = leftChild.right;
 
@@ -376,6 +508,7 @@ public class CollisionsData {
 	 * @return Node  new root after the rotation.
 	 */
 	private Node rotateRightLeft(Node tree) {
+		Metrics.rotationsRightLeft.increment();
 		Node rightChild = tree.right;
 		Node leftTreeofRightChild = rightChild.left;
 		tree.right = leftTreeofRightChild.left;
@@ -426,82 +559,293 @@ public class CollisionsData {
 		if(root ==  null)
 			return "";
 
+		return formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  number of collisions, pedestrians/cyclists/motorists
+	 *   killed and pedestrians/cyclists/motorists injured.
+	 */
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
 		//Store the data about the collisions in an array
 		int [] report = new int[7];
+		long start = System.nanoTime();
 
 		// Get report.
-		 getReport(root, report, zip, dateBegin, dateEnd);
-
-
-		 	// Print report.
-			StringBuilder sb = new StringBuilder();
-
-			if (report[0] == 0) sb.append("There are no reports to show for this zip code.");
-
-			else{
-			sb.append("Motor Vehicle Collisions for zipcode " + zip + " "+ dateBegin.toString() + " - "
-				+ dateEnd.toString() + "\n");
-			sb.append("====================================================================" + "\n");
-			sb.append("Total number of collisions: " + String.valueOf(report[0]) + "\n");
-			sb.append("Number of fatalities: " + String.valueOf(report[1] + report[2] + report[3]) + "\n");
-			sb.append("         pedestrians: " + String.valueOf(report[1]) + "\n");
-			sb.append("            cyclists: " + String.valueOf(report[2]) + "\n");
-			sb.append("           motorists: " + String.valueOf(report[3]) + "\n");
-			sb.append("Number of injuries: " + String.valueOf(report[4] + report[5] + report[6]) + "\n");
-			sb.append("       pedestrians: " + String.valueOf(report[4]) + "\n");
-			sb.append("          cyclists: " + String.valueOf(report[5]) + "\n");
-			sb.append("         motorists: " + String.valueOf(report[6]) + "\n");
-			}
-			return sb.toString();
+		int visited = getReport(root, report, zip, dateBegin, dateEnd);
+		Metrics.report(System.nanoTime() - start, visited);
+		return report;
+	}
 
+	/*
+	 * Produces the text of a report from the totals computed by getTotals.
+	 *
+	 * @param report  totals in the order returned by getTotals.
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	static String formatReport(int [] report, String zip, Date dateBegin, Date dateEnd) {
+		StringBuilder sb = new StringBuilder();
+
+		if (report[0] == 0) sb.append("There are no reports to show for this zip code.");
+
+		else{
+		sb.append("Motor Vehicle Collisions for zipcode " + zip + " "+ dateBegin.toString() + " - "
+			+ dateEnd.toString() + "\n");
+		sb.append("====================================================================" + "\n");
+		sb.append("Total number of collisions: " + String.valueOf(report[0]) + "\n");
+		sb.append("Number of fatalities: " + String.valueOf(report[1] + report[2] + report[3]) + "\n");
+		sb.append("         pedestrians: " + String.valueOf(report[1]) + "\n");
+		sb.append("            cyclists: " + String.valueOf(report[2]) + "\n");
+		sb.append("           motorists: " + String.valueOf(report[3]) + "\n");
+		sb.append("Number of injuries: " + String.valueOf(report[4] + report[5] + report[6]) + "\n");
+		sb.append("       pedestrians: " + String.valueOf(report[4]) + "\n");
+		sb.append("          cyclists: " + String.valueOf(report[5]) + "\n");
+		sb.append("         motorists: " + String.valueOf(report[6]) + "\n");
+		}
+		return sb.toString();
 	}
 
 	/*
 	 * Reports the number of fatalities and injuries for a given zip code
 	 *   and Date range.
 	 *
+	 * The records of the range are the ones before (zip, dateEnd + 1 day)
+	 *   minus the ones before (zip, dateBegin). Each of the two is the sum of
+	 *   the subtree totals along one path from node to a leaf, so the report
+	 *   takes O(log n) steps however many records match.
+	 *
 	 * @param node  current position in the AVL tree.
 	 * @param report  containing data to be reported.
 	 * @param zip  containing the zip code.
 	 * @param dateBegin  Beginning of the data range.
 	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int  number of nodes visited.
 	 */
-	public void getReport(Node node, int [] report, String zip, Date dateBegin, Date dateEnd) {
-		if (node == null) return;
+	public int getReport(Node node, int [] report, String zip, Date dateBegin, Date dateEnd) {
+		if (dateBegin.compareTo(dateEnd) > 0)
+			return 0;
+		// packed dates keep the day in the low bits, so + 1 is the next day
+		// or a value between the last day of a month and the next month
+		int code = ZipDictionary.code(zip);
+		return addTotalsBefore(node, report, zip, code, dateEnd.packed() + 1, 1)
+				+ addTotalsBefore(node, report, zip, code, dateBegin.packed(), -1);
+	}
 
-		//Compare the zip codes to determine direction of traversal
-		if (zip.compareTo(node.data.getZip()) < 0) {
-			getReport(node.left, report, zip, dateBegin, dateEnd);
-		}
-		else if(zip.compareTo(node.data.getZip()) > 0) {
-			getReport(node.right, report, zip, dateBegin, dateEnd);
-		}
-		else {
-			if(dateBegin.compareTo(node.data.getDate()) <= 0) {
-				//After zip codes, compare by dates
-				if(dateEnd.compareTo(node.data.getDate()) >= 0) {
-					++report[0];
-					report[1] += Integer.valueOf(node.data.getPedestriansKilled());
-					report[2] += Integer.valueOf(node.data.getCyclistsKilled());
-					report[3] += Integer.valueOf(node.data.getMotoristsKilled());
-					report[4] += Integer.valueOf(node.data.getPedestriansInjured());
-					report[5] += Integer.valueOf(node.data.getCyclistsInjured());
-					report[6] += Integer.valueOf(node.data.getMotoristsInjured());
-
-					getReport(node.left, report, zip, dateBegin, dateEnd);
-					getReport(node.right, report, zip, dateBegin, dateEnd);
+	/*
+	 * Adds (sign 1) or subtracts (sign -1) the totals of all records in the
+	 *   subtree that come before the given zip code and packed date.
+	 *
+	 * @param node  root of the subtree.
+	 * @param report  containing data to be reported.
+	 * @param zip  zip code of the bound.
+	 * @param code  code of the zip code (see ZipDictionary.code).
+	 * @param date  packed date of the bound.
+	 * @param sign  1 to add the totals, -1 to subtract them.
+	 *
+	 * @return int  number of nodes visited.
+	 */
+	private int addTotalsBefore(Node node, int [] report, String zip, int code, int date, int sign) {
+		int visited = 0;
+		while (node != null) {
+			visited++;
+			//Compare by zip code, then by date
+			int result = node.data.compareZip(zip, code);
+			if (result == 0)
+				result = node.data.getDate().packed() - date;
+
+			if (result < 0) {
+				// The node and its left subtree are all before the bound
+				Collision data = node.data;
+				report[0] += sign;
+				report[1] += sign * data.getPedestriansKilled();
+				report[2] += sign * data.getCyclistsKilled();
+				report[3] += sign * data.getMotoristsKilled();
+				report[4] += sign * data.getPedestriansInjured();
+				report[5] += sign * data.getCyclistsInjured();
+				report[6] += sign * data.getMotoristsInjured();
+				Node left = node.left;
+				if (left != null) {
+					report[0] += sign * left.count;
+					report[1] += sign * left.pedestriansKilled;
+					report[2] += sign * left.cyclistsKilled;
+					report[3] += sign * left.motoristsKilled;
+					report[4] += sign * left.pedestriansInjured;
+					report[5] += sign * left.cyclistsInjured;
+					report[6] += sign * left.motoristsInjured;
 				}
+				node = node.right;
+			}
+			else {
+				node = node.left;
+			}
+		}
+		return visited;
+	}
+
+	/*
+	 * Passes the records of a zip code and Date range to an action, in date
+	 *   order, with one in-order traversal of the tree. The traversal skips
+	 *   the subtrees before the range and stops after it, so it takes
+	 *   O(log n + k) steps for k matching records.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 * @param action  called for every record of the range.
+	 *
+	 * @return int  number of nodes visited.
+	 */
+	public int forEachInRange(String zip, Date dateBegin, Date dateEnd, Consumer<Collision> action) {
+		int code = ZipDictionary.code(zip);
+		int begin = dateBegin.packed();
+		int end = dateEnd.packed();
+		int visited = 0;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node node = root;
+		while (node != null || !stack.isEmpty()) {
+			// Go down to the first record of the subtree that is in the range
+			while (node != null) {
+				visited++;
+				int result = node.data.compareZip(zip, code);
+				if (result < 0 || result == 0 && node.data.getDate().packed() < begin)
+					node = node.right;
 				else {
-					getReport(node.right, report, zip, dateBegin, dateEnd);
+					stack.push(node);
+					node = node.left;
+				}
+			}
+			if (stack.isEmpty())
+				break;
+			node = stack.pop();
+			int result = node.data.compareZip(zip, code);
+			if (result > 0 || result == 0 && node.data.getDate().packed() > end)
+				break;
+			action.accept(node.data);
+			node = node.right;
+		}
+		return visited;
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a group of zip codes
+	 *   and Date range, per zip code and combined.
+	 *
+	 * @param zips  the zip codes of the report.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	public String getReport(ZipSelection zips, Date dateBegin, Date dateEnd) {
+		if (root == null)
+			return "";
+
+		return getTotals(zips, dateBegin, dateEnd).toString();
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a group of zip
+	 *   codes and Date range, per zip code and combined.
+	 *
+	 * The zip codes are visited in order. Within a range of the selection
+	 *   (a prefix) every zip code that has records is found by a seek from
+	 *   the previous one, so the zip codes outside the selection are skipped
+	 *   without visiting their records, and the totals of each zip code are
+	 *   computed as in getTotals. The report takes O(log n) steps per zip
+	 *   code of the group however many records match.
+	 *
+	 * @param zips  the zip codes of the report.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return GroupReport  totals per zip code and combined.
+	 */
+	public GroupReport getTotals(ZipSelection zips, Date dateBegin, Date dateEnd) {
+		GroupReport report = new GroupReport(zips, dateBegin, dateEnd);
+		long start = System.nanoTime();
+
+		int [] visited = new int[1];
+		if (dateBegin.compareTo(dateEnd) <= 0) {
+			int [] totals = new int[7];
+			for (int i = 0; i < zips.ranges(); i++) {
+				String last = zips.rangeEnd(i);
+				boolean single = zips.rangeStart(i).equals(last);
+				String zip = single ? last : zipAtOrAfter(zips.rangeStart(i), false, visited);
+				while (zip != null && zip.compareTo(last) <= 0) {
+					Arrays.fill(totals, 0);
+					visited[0] += getReport(root, totals, zip, dateBegin, dateEnd);
+					if (totals[0] > 0)
+						report.add(zip, totals);
+					zip = single ? null : zipAtOrAfter(zip, true, visited);
 				}
 			}
+		}
+		Metrics.report(System.nanoTime() - start, visited[0]);
+		return report;
+	}
+
+	/*
+	 * Returns the smallest zip code in the tree that comes at or after
+	 *   (after is false) or strictly after (after is true) the given one.
+	 *
+	 * @param zip  the zip code to start from.
+	 * @param after  true to skip the records of zip itself.
+	 * @param visited  number of nodes visited, increased by the search.
+	 *
+	 * @return String  the zip code, or null if there is none.
+	 */
+	private String zipAtOrAfter(String zip, boolean after, int [] visited) {
+		String found = null;
+		int code = ZipDictionary.code(zip);
+		Node node = root;
+		while (node != null) {
+			visited[0]++;
+			int result = node.data.compareZip(zip, code);
+			if (result > 0 || result == 0 && !after) {
+				found = node.data.getZip();
+				node = node.left;
+			}
 			else {
-				getReport(node.left, report, zip, dateBegin, dateEnd);
+				node = node.right;
 			}
 		}
+		return found;
 	}
 
 
+	/**
+	 * Path is the stack of nodes visited on the way down the tree, with the
+	 * direction taken below each of them. It starts large enough for an AVL
+	 * tree of a billion nodes (less than 1.45 log2(n + 2) high) and grows if
+	 * the tree is higher.
+	 */
+	private static final class Path {
+		Node[] nodes = new Node[48];
+		boolean[] wentLeft = new boolean[48];
+		int depth;
+
+		void push(Node node, boolean left) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				wentLeft = Arrays.copyOf(wentLeft, depth * 2);
+			}
+			nodes[depth] = node;
+			wentLeft[depth++] = left;
+		}
+	}
+
 	/**
 	 * Node class is used to represent nodes in a binary search tree.
 	 * It contains a data item that has to implement Comparable interface
@@ -520,6 +864,15 @@ public class CollisionsData {
 
 		protected int height;
 
+		// totals of the records in the subtree rooted at this node
+		protected int count;
+		protected int pedestriansKilled;
+		protected int cyclistsKilled;
+		protected int motoristsKilled;
+		protected int pedestriansInjured;
+		protected int cyclistsInjured;
+		protected int motoristsInjured;
+
 
 		/*
 		 * Constructs a BSTNode initializing the data part
@@ -533,6 +886,13 @@ public class CollisionsData {
 			left = null;
 			right = null;
 			height = 0;
+			count = 1;
+			pedestriansKilled = data.getPedestriansKilled();
+			cyclistsKilled = data.getCyclistsKilled();
+			motoristsKilled = data.getMotoristsKilled();
+			pedestriansInjured = data.getPedestriansInjured();
+			cyclistsInjured = data.getCyclistsInjured();
+			motoristsInjured = data.getMotoristsInjured();
 		}
 
 		/* (non-Javadoc)
@@ -0,0 +1,403 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This class stores collision records column by column instead of as
+ * Collision objects. The records are sorted by zip code, date and key, and
+ * every field is kept in its own primitive array:
+ *
+ * - zip codes are replaced by an int code (the index of the zip in the
+ *   sorted table of distinct zips); the records of zip code c are the ones
+ *   between zipStart[c] and zipStart[c + 1], so no per-record zip is stored
+ * - dates are stored as packed ints (see Date.packed)
+ * - the eight injury/fatality counters use the narrowest array type that fits
+ *   their largest value (byte, short or int)
+ * - keys are stored as longs
+ *
+ * The columns are built either from an array of records or, by load,
+ * straight from the rows of a csv file, so that a large file does not need
+ * one Collision object per row at any time. It produces the same reports as
+ * CollisionsData.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ColumnarCollisions implements ReportIndex {
+
+	// sorted distinct zip codes; the index of a zip is its code
+	private final String[] zips;
+	// first record of every zip code, plus one entry for the end
+	private final int[] zipStart;
+	// packed date of every record
+	private final int[] dates;
+	// key of every record (see encodeKey)
+	private final long[] keys;
+	// keys that are not packed
+	private final String[] otherKeys;
+	// counters of every record
+	private final Column personsInjured;
+	private final Column personsKilled;
+	private final Column pedestriansKilled;
+	private final Column cyclistsKilled;
+	private final Column motoristsKilled;
+	private final Column pedestriansInjured;
+	private final Column cyclistsInjured;
+	private final Column motoristsInjured;
+
+	/**
+	 * Creates the columns from the given records. The records are sorted
+	 * first unless they already are in order. Null records are skipped.
+	 *
+	 * @param records the collision records
+	 */
+	public ColumnarCollisions(Collision[] records) {
+		this(Loader.of(records));
+	}
+
+	/**
+	 * Loads a csv file straight into columns: every row is parsed into a
+	 * Collision, appended to the columns and dropped, so the records never
+	 * all live on the heap as objects. Rows that do not hold a valid record
+	 * are skipped.
+	 *
+	 * @param path the csv file
+	 * @return the loaded records
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ColumnarCollisions load(Path path) throws IOException {
+		Loader loader = new Loader();
+		CSVMappedReader.read(path, row -> {
+			Metrics.rowsRead.increment();
+			try {
+				loader.append(new Collision(row));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				// skip the invalid record (a missing key is reported as a
+				// NullPointerException)
+				Metrics.rejected(e);
+			}
+		});
+		Metrics.recordsLoaded.add(loader.size);
+		return new ColumnarCollisions(loader);
+	}
+
+	/*
+	 * Creates the columns from the unsorted columns of a loader: renumbers
+	 * the zip codes in sorted order, sorts the records and copies every
+	 * column in that order.
+	 */
+	private ColumnarCollisions(Loader loader) {
+		int count = loader.size;
+
+		// Build the zip table and give every record the code of its zip
+		zips = loader.zipList.toArray(new String[loader.zipList.size()]);
+		Arrays.sort(zips);
+		int[] rank = new int[zips.length];
+		for (int code = 0; code < zips.length; code++)
+			rank[loader.zipCodes.get(zips[code])] = code;
+		int[] zipOf = loader.zips;
+		for (int i = 0; i < count; i++)
+			zipOf[i] = rank[zipOf[i]];
+
+		// Sort the records, unless they already are in order
+		int[] order = new int[count];
+		boolean sorted = true;
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			sorted &= i == 0 || loader.compare(i - 1, i) <= 0;
+		}
+		if (!sorted)
+			loader.sort(order, new int[count], 0, count);
+
+		// Find the start of every zip and fill the columns in sorted order
+		zipStart = new int[zips.length + 1];
+		for (int i = count - 1; i >= 0; i--)
+			zipStart[zipOf[order[i]]] = i;
+		zipStart[zips.length] = count;
+		dates = new int[count];
+		keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			dates[i] = loader.dates[order[i]];
+			keys[i] = loader.keys[order[i]];
+		}
+		otherKeys = loader.otherKeys.toArray(new String[loader.otherKeys.size()]);
+		personsInjured = new Column(count, i -> loader.counter(0, order[i]));
+		personsKilled = new Column(count, i -> loader.counter(1, order[i]));
+		pedestriansKilled = new Column(count, i -> loader.counter(2, order[i]));
+		cyclistsKilled = new Column(count, i -> loader.counter(3, order[i]));
+		motoristsKilled = new Column(count, i -> loader.counter(4, order[i]));
+		pedestriansInjured = new Column(count, i -> loader.counter(5, order[i]));
+		cyclistsInjured = new Column(count, i -> loader.counter(6, order[i]));
+		motoristsInjured = new Column(count, i -> loader.counter(7, order[i]));
+	}
+
+	/*
+	 * Turns the key of a record into a long: a key made of up to
+	 * Collision.KEY_DIGITS digits is stored packed (see
+	 * Collision.getPackedKey), which is positive and sorts like the key; any
+	 * other key is stored in otherKeys and encoded as -1 - its index there.
+	 *
+	 * @param record the record
+	 * @param otherKeys list collecting the keys that are not packed
+	 * @return the encoded key
+	 */
+	static long encodeKey(Collision record, ArrayList<String> otherKeys) {
+		long key = record.getPackedKey();
+		if (key != Collision.NO_KEY)
+			return key;
+		otherKeys.add(record.getKey());
+		return -otherKeys.size();
+	}
+
+	/*
+	 * Turns a key encoded by encodeKey back into the key.
+	 *
+	 * @param key the encoded key
+	 * @param otherKeys the keys that are not packed
+	 * @return the key
+	 */
+	static String decodeKey(long key, List<String> otherKeys) {
+		return key >= 0 ? Collision.unpackKey(key) : otherKeys.get((int) (-1 - key));
+	}
+
+	/**
+	 * Returns the number of records stored
+	 * @return number of records
+	 */
+	public int size() {
+		return dates.length;
+	}
+
+	/**
+	 * Returns the key of record i (in sorted order)
+	 * @param i index of the record
+	 * @return the key
+	 */
+	public String getKey(int i) {
+		return decodeKey(keys[i], Arrays.asList(otherKeys));
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size() == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range by finding the records of the range with two binary
+	 *   searches and summing their counters.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		int code = Arrays.binarySearch(zips, zip);
+		if (code < 0)
+			return report;
+
+		int first = firstOnOrAfter(zipStart[code], zipStart[code + 1], dateBegin.packed());
+		int last = firstOnOrAfter(first, zipStart[code + 1], dateEnd.packed() + 1);
+		report[0] = last - first;
+		for (int i = first; i < last; i++) {
+			report[1] += pedestriansKilled.get(i);
+			report[2] += cyclistsKilled.get(i);
+			report[3] += motoristsKilled.get(i);
+			report[4] += pedestriansInjured.get(i);
+			report[5] += cyclistsInjured.get(i);
+			report[6] += motoristsInjured.get(i);
+		}
+		return report;
+	}
+
+	/*
+	 * Finds the first record between from and to whose date is not before
+	 * the given packed date.
+	 *
+	 * @return index of the record, or to if there is none
+	 */
+	private int firstOnOrAfter(int from, int to, int date) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (dates[middle] < date)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+		return from;
+	}
+
+	/**
+	 * Column stores one counter of every record in a byte, short or int array,
+	 * whichever is the smallest that can hold all of its values.
+	 */
+	static class Column {
+		private byte[] bytes;
+		private short[] shorts;
+		private int[] ints;
+
+		/*
+		 * Stores value.applyAsInt(0) to value.applyAsInt(count - 1).
+		 */
+		Column(int count, IntUnaryOperator value) {
+			int max = 0;
+			for (int i = 0; i < count; i++)
+				max = Math.max(max, value.applyAsInt(i));
+			if (max <= Byte.MAX_VALUE) {
+				bytes = new byte[count];
+				for (int i = 0; i < count; i++)
+					bytes[i] = (byte) value.applyAsInt(i);
+			} else if (max <= Short.MAX_VALUE) {
+				shorts = new short[count];
+				for (int i = 0; i < count; i++)
+					shorts[i] = (short) value.applyAsInt(i);
+			} else {
+				ints = new int[count];
+				for (int i = 0; i < count; i++)
+					ints[i] = value.applyAsInt(i);
+			}
+		}
+
+		int get(int i) {
+			return bytes != null ? bytes[i] : shorts != null ? shorts[i] : ints[i];
+		}
+	}
+
+	/**
+	 * Loader collects the columns of the records in the order they are
+	 * appended, growing its arrays as needed, with the zip codes numbered in
+	 * order of appearance. A counter is kept in a byte; the counters of the
+	 * rare records with a counter above WIDE are kept in wideCounters.
+	 */
+	static class Loader {
+		// largest counter kept in a byte; a byte of WIDE marks a wide record
+		private static final int WIDE = Byte.MAX_VALUE;
+
+		private int size;
+		private int[] zips = new int[16];
+		private int[] dates = new int[16];
+		private long[] keys = new long[16];
+		private byte[][] counters = new byte[8][16];
+		// counters of the records with a counter above WIDE, by record
+		private final HashMap<Integer, int[]> wideCounters = new HashMap<Integer, int[]>();
+		private final ArrayList<String> otherKeys = new ArrayList<String>();
+		// code of every zip code, in order of appearance
+		private final HashMap<String, Integer> zipCodes = new HashMap<String, Integer>();
+		private final ArrayList<String> zipList = new ArrayList<String>();
+
+		/*
+		 * Returns a loader holding the non-null records of the array.
+		 */
+		static Loader of(Collision[] records) {
+			Loader loader = new Loader();
+			for (Collision record : records) {
+				if (record != null)
+					loader.append(record);
+			}
+			return loader;
+		}
+
+		/*
+		 * Writes the fields of a record after the last one.
+		 */
+		void append(Collision record) {
+			if (size == dates.length) {
+				int capacity = size + (size >> 1);
+				zips = Arrays.copyOf(zips, capacity);
+				dates = Arrays.copyOf(dates, capacity);
+				keys = Arrays.copyOf(keys, capacity);
+				for (int k = 0; k < counters.length; k++)
+					counters[k] = Arrays.copyOf(counters[k], capacity);
+			}
+			Integer code = zipCodes.get(record.getZip());
+			if (code == null) {
+				code = zipList.size();
+				zipCodes.put(record.getZip(), code);
+				zipList.add(record.getZip());
+			}
+			zips[size] = code;
+			dates[size] = record.getDate().packed();
+			keys[size] = encodeKey(record, otherKeys);
+			int[] values = {record.getPersonsInjured(), record.getPersonsKilled(), record.getPedestriansKilled(),
+					record.getCyclistsKilled(), record.getMotoristsKilled(), record.getPedestriansInjured(),
+					record.getCyclistsInjured(), record.getMotoristsInjured()};
+			boolean wide = false;
+			for (int value : values)
+				wide |= value >= WIDE;
+			if (wide)
+				wideCounters.put(size, values);
+			for (int k = 0; k < values.length; k++)
+				counters[k][size] = (byte) (wide ? WIDE : values[k]);
+			size++;
+		}
+
+		/*
+		 * Returns counter k of record i.
+		 */
+		int counter(int k, int i) {
+			int value = counters[k][i];
+			return value == WIDE ? wideCounters.get(i)[k] : value;
+		}
+
+		/*
+		 * Compares records i and j by zip code, date and key, like
+		 * Collision.compareTo does, once the zip codes are in sorted order.
+		 * Packed keys are compared as longs and the others as Strings.
+		 */
+		int compare(int i, int j) {
+			if (zips[i] != zips[j])
+				return zips[i] < zips[j] ? -1 : 1;
+			if (dates[i] != dates[j])
+				return dates[i] < dates[j] ? -1 : 1;
+			if (keys[i] >= 0 && keys[j] >= 0)
+				return Long.compare(keys[i], keys[j]);
+			return decodeKey(keys[i], otherKeys).compareTo(decodeKey(keys[j], otherKeys));
+		}
+
+		/*
+		 * Sorts the record numbers between from and to with a stable merge
+		 * sort, so that records that compare equal keep their file order.
+		 */
+		void sort(int[] order, int[] buffer, int from, int to) {
+			if (to - from < 2)
+				return;
+			int middle = (from + to) >>> 1;
+			sort(order, buffer, from, middle);
+			sort(order, buffer, middle, to);
+			if (compare(order[middle - 1], order[middle]) <= 0)
+				return;
+			System.arraycopy(order, from, buffer, from, to - from);
+			int i = from, j = middle, k = from;
+			while (i < middle && j < to) {
+				if (compare(buffer[j], buffer[i]) < 0)
+					order[k++] = buffer[j++];
+				else
+					order[k++] = buffer[i++];
+			}
+			while (i < middle)
+				order[k++] = buffer[i++];
+			while (j < to)
+				order[k++] = buffer[j++];
+		}
+	}
+}
@@ -0,0 +1,323 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class keeps collision records compressed in memory, for data that is
+ * kept resident but rarely asked for, and decodes them while a report scans
+ * them.
+ *
+ * The records are sorted by zip code, date and key and cut into blocks of
+ * at most BLOCK_RECORDS records of one zip code. All blocks are stored one
+ * after the other in a single byte array; every block holds its records
+ * first and their keys after them:
+ *
+ * - a record is the distance of its packed date from the date of the record
+ *   before it in the block (a varint, usually one byte), a byte telling
+ *   which of the eight counters are not zero and the varints of those
+ *   counters, so a record without injuries or fatalities takes two bytes
+ * - a key packed by Collision is a varint of its number of digits in the
+ *   low five bits and, above them, the zig-zag encoded difference of its
+ *   value from the value of the packed key before; any other key has 0 in
+ *   the low five bits and its index in otherKeys above them. Reports never
+ *   read the keys, getKey decodes them
+ *
+ * For every block the heap keeps the date and the index of its first record
+ * and where its records and its keys start, and for every zip code its
+ * first block. A report looks up the first block that can hold the start of
+ * the range and decodes records until one comes after its end.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class CompressedCollisions implements ReportIndex {
+
+	// records of a block
+	static final int BLOCK_RECORDS = 128;
+
+	// number of records
+	private final int size;
+	// sorted distinct zip codes; the index of a zip is its code
+	private final String[] zips;
+	// first block of every zip code, plus one entry for the end
+	private final int[] zipBlock;
+	// packed date of the first record of every block
+	private final int[] blockDate;
+	// index of the first record of every block, plus one entry for the end
+	private final int[] blockRecord;
+	// start of the records of every block, plus one entry for the end
+	private final int[] blockStart;
+	// start of the keys of every block
+	private final int[] keyStart;
+	// the blocks
+	private final byte[] data;
+	// keys that are not packed
+	private final String[] otherKeys;
+
+	/**
+	 * Compresses the given records. The records are sorted first unless they
+	 * already are in order. Null records are skipped.
+	 *
+	 * @param records the collision records
+	 */
+	public CompressedCollisions(Collision[] records) {
+		Collision[] sorted = CollisionsData.sortedCopy(records);
+		size = sorted.length;
+
+		// Cut the records into blocks that do not cross zip codes
+		ArrayList<String> zipList = new ArrayList<String>();
+		int[] zipFirst = new int[size + 1];
+		int[] blockFirst = new int[size + 1];
+		int blocks = 0;
+		for (int i = 0; i < size; i++) {
+			boolean newZip = i == 0 || !sorted[i].getZip().equals(sorted[i - 1].getZip());
+			if (newZip) {
+				zipFirst[zipList.size()] = blocks;
+				zipList.add(sorted[i].getZip());
+			}
+			if (newZip || i - blockFirst[blocks - 1] == BLOCK_RECORDS)
+				blockFirst[blocks++] = i;
+		}
+		blockFirst[blocks] = size;
+		zipFirst[zipList.size()] = blocks;
+		zips = zipList.toArray(new String[zipList.size()]);
+		zipBlock = Arrays.copyOf(zipFirst, zips.length + 1);
+		blockRecord = Arrays.copyOf(blockFirst, blocks + 1);
+
+		// Encode every block
+		blockDate = new int[blocks];
+		blockStart = new int[blocks + 1];
+		keyStart = new int[blocks];
+		ArrayList<String> otherKeyList = new ArrayList<String>();
+		Output out = new Output(size * 4);
+		for (int block = 0; block < blocks; block++) {
+			blockStart[block] = out.size;
+			blockDate[block] = sorted[blockFirst[block]].getDate().packed();
+			int date = blockDate[block];
+			for (int i = blockFirst[block]; i < blockFirst[block + 1]; i++) {
+				Collision record = sorted[i];
+				out.writeVarint(record.getDate().packed() - date);
+				date = record.getDate().packed();
+				int[] counters = {record.getPersonsInjured(), record.getPersonsKilled(),
+						record.getPedestriansKilled(), record.getCyclistsKilled(), record.getMotoristsKilled(),
+						record.getPedestriansInjured(), record.getCyclistsInjured(), record.getMotoristsInjured()};
+				int mask = 0;
+				for (int k = 0; k < 8; k++) {
+					if (counters[k] != 0)
+						mask |= 1 << k;
+				}
+				out.write(mask);
+				for (int k = 0; k < 8; k++) {
+					if (counters[k] != 0)
+						out.writeVarint(counters[k]);
+				}
+			}
+			keyStart[block] = out.size;
+			long value = 0;
+			for (int i = blockFirst[block]; i < blockFirst[block + 1]; i++) {
+				long key = ColumnarCollisions.encodeKey(sorted[i], otherKeyList);
+				if (key < 0) {
+					out.writeVarint((-1 - key) << 5);
+					continue;
+				}
+				long delta = Collision.keyValue(key) - value;
+				out.writeVarint((delta << 1 ^ delta >> 63) << 5 | Collision.keyLength(key));
+				value += delta;
+			}
+		}
+		blockStart[blocks] = out.size;
+		data = Arrays.copyOf(out.bytes, out.size);
+		otherKeys = otherKeyList.toArray(new String[otherKeyList.size()]);
+	}
+
+	/**
+	 * Returns the number of records stored
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes taken by the records: the blocks and the
+	 * arrays that find them (not counting the zip codes and the keys that
+	 * are not packed)
+	 * @return number of bytes
+	 */
+	public long compressedBytes() {
+		return data.length + 4L * (zipBlock.length + blockDate.length + blockRecord.length + blockStart.length
+				+ keyStart.length);
+	}
+
+	/**
+	 * Returns the number of bytes of the keys in the blocks
+	 * @return number of bytes
+	 */
+	public long keyBytes() {
+		long bytes = 0;
+		for (int block = 0; block < keyStart.length; block++)
+			bytes += blockStart[block + 1] - keyStart[block];
+		return bytes;
+	}
+
+	/**
+	 * Returns the key of record i (in sorted order), decoding the keys of
+	 * its block up to it
+	 * @param i index of the record
+	 * @return the key
+	 */
+	public String getKey(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("record " + i + " of " + size);
+		int block = Arrays.binarySearch(blockRecord, i);
+		if (block < 0)
+			block = -block - 2;
+		int p = keyStart[block];
+		long value = 0;
+		long code = 0;
+		for (int record = blockRecord[block]; record <= i; record++) {
+			code = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = data[p++];
+				code |= (long) (b & 0x7f) << shift;
+				if (b >= 0)
+					break;
+			}
+			if ((code & 31) != 0)
+				value += code >>> 6 ^ -(code >>> 5 & 1);
+		}
+		int length = (int) (code & 31);
+		return length == 0 ? otherKeys[(int) (code >>> 5)] : Collision.unpackKey(Collision.pack(value, length));
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range by decoding the blocks of the zip code from the last
+	 *   one that starts before the range until a record after the range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		int code = Arrays.binarySearch(zips, zip);
+		if (code < 0)
+			return report;
+		int begin = dateBegin.packed();
+		int end = dateEnd.packed();
+
+		// The blocks before the last one that starts before the range only
+		// hold records before it
+		int block = zipBlock[code];
+		int lastBlock = zipBlock[code + 1];
+		int from = block + 1;
+		int to = lastBlock;
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (blockDate[middle] < begin)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+		block = from - 1;
+
+		byte[] data = this.data;
+		// sums of the eight counters; in is -1 for the records of the range
+		// and 0 for the records before it, so they are added without a branch
+		int[] sums = new int[8];
+		int count = 0;
+		scan:
+		for (; block < lastBlock; block++) {
+			int date = blockDate[block];
+			if (date > end)
+				break;
+			int p = blockStart[block];
+			int stop = keyStart[block];
+			while (p < stop) {
+				// varint date difference, almost always one byte
+				int delta = data[p++];
+				if (delta < 0) {
+					delta &= 0x7f;
+					for (int shift = 7;; shift += 7) {
+						int b = data[p++];
+						delta |= (b & 0x7f) << shift;
+						if (b >= 0)
+							break;
+					}
+				}
+				date += delta;
+				if (date > end)
+					break scan;
+				int in = date >= begin ? -1 : 0;
+				count -= in;
+				// only the counters that are not zero follow
+				for (int mask = data[p++] & 0xff; mask != 0; mask &= mask - 1) {
+					int value = data[p++];
+					if (value < 0) {
+						value &= 0x7f;
+						for (int shift = 7;; shift += 7) {
+							int b = data[p++];
+							value |= (b & 0x7f) << shift;
+							if (b >= 0)
+								break;
+						}
+					}
+					sums[Integer.numberOfTrailingZeros(mask)] += value & in;
+				}
+			}
+		}
+		report[0] = count;
+		System.arraycopy(sums, 2, report, 1, 6);
+		return report;
+	}
+
+	/**
+	 * Output is a growing byte array the blocks are written to.
+	 */
+	static class Output {
+		byte[] bytes;
+		int size;
+
+		Output(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		void write(int b) {
+			if (size == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			bytes[size++] = (byte) b;
+		}
+
+		/*
+		 * Writes a value that is not negative, seven bits per byte starting
+		 * with the lowest, with the high bit set on every byte but the last.
+		 */
+		void writeVarint(long value) {
+			while ((value & ~0x7fL) != 0) {
+				write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * This class measures how much memory CompressedCollisions saves and what
+ * the decoding costs. It prints the bytes per record of the compressed
+ * blocks next to the Collision objects with an AVL tree, the column arrays
+ * of ColumnarCollisions and the fixed-width records of OffHeapCollisions,
+ * then the scan throughput (records added up per second when every zip code
+ * is reported over all dates) and the time per report of the query mix of
+ * ReportBenchmark, for the compressed blocks and the column arrays.
+ *
+ * Heap sizes are measured after a collection, so they are approximate.
+ *
+ * Usage: java CompressionBenchmark file [number of queries] [rounds]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class CompressionBenchmark {
+
+	// keeps the JIT from discarding the measured work
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage Error: java CompressionBenchmark file [number of queries] [rounds]");
+			System.exit(0);
+		}
+		File file = new File(args[0]);
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		// Heap of the Collision objects and of an AVL tree holding them
+		long heap = IndexHarness.usedHeap();
+		Collision[] records = ParallelLoader.loadSorted(file.toPath(), Runtime.getRuntime().availableProcessors());
+		long objectBytes = IndexHarness.usedHeap() - heap;
+		CollisionsData tree = new CollisionsData(records);
+		long treeBytes = IndexHarness.usedHeap() - heap;
+		int size = records.length;
+		if (size == 0) {
+			System.err.println("ERROR: the file " + file + " holds no valid records");
+			System.exit(1);
+		}
+
+		heap = IndexHarness.usedHeap();
+		ColumnarCollisions columnar = new ColumnarCollisions(records);
+		long columnarBytes = IndexHarness.usedHeap() - heap;
+		CompressedCollisions compressed = new CompressedCollisions(records);
+		long compressedBytes = compressed.compressedBytes();
+
+		System.out.println(size + " records");
+		print("Collision objects", objectBytes, size, compressedBytes);
+		print("Collisions and AVL tree", treeBytes, size, compressedBytes);
+		print("ColumnarCollisions", columnarBytes, size, compressedBytes);
+		print("OffHeapCollisions", (long) size * OffHeapCollisions.RECORD_SIZE, size, compressedBytes);
+		print("CompressedCollisions", compressedBytes, size, compressedBytes);
+		print("  without the keys", compressedBytes - compressed.keyBytes(), size, compressedBytes);
+
+		// Every zip code over all dates, so every record is read once
+		Date first = records[0].getDate();
+		Date last = first;
+		TreeSet<String> zipSet = new TreeSet<String>();
+		for (Collision record : records) {
+			zipSet.add(record.getZip());
+			if (record.getDate().compareTo(first) < 0)
+				first = record.getDate();
+			if (record.getDate().compareTo(last) > 0)
+				last = record.getDate();
+		}
+		String[] allZips = zipSet.toArray(new String[zipSet.size()]);
+		String[] zips = new String[count];
+		Date[] begins = new Date[count];
+		Date[] ends = new Date[count];
+		ReportBenchmark.queryMix(records, new Random(42), zips, begins, ends);
+		records = null;
+		tree = null;
+
+		ReportIndex[] indexes = {columnar, compressed};
+		String[] names = {"ColumnarCollisions", "CompressedCollisions"};
+		for (int i = 0; i < indexes.length; i++) {
+			long scan = Long.MAX_VALUE;
+			long mix = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				for (String zip : allZips)
+					sink += indexes[i].getTotals(zip, first, last)[0];
+				scan = Math.min(scan, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int q = 0; q < count; q++)
+					sink += indexes[i].getTotals(zips[q], begins[q], ends[q])[0];
+				mix = Math.min(mix, System.nanoTime() - start);
+			}
+			System.out.println(String.format("%-24s scan %8.1f M records/s   query mix %8.1f ns/query", names[i],
+					size * 1e3 / scan, (double) mix / count));
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/*
+	 * Prints the bytes per record of a layout and how many times larger it is
+	 * than the compressed blocks.
+	 */
+	private static void print(String name, long bytes, int size, long compressedBytes) {
+		System.out.println(String.format("%-24s %10.1f MB %8.1f bytes/record %6.1fx", name, bytes / 1048576.0,
+				(double) bytes / size, (double) bytes / compressedBytes));
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * This enum names the counters of a report, in the order of the arrays
+ * returned by getTotals, so that rankings can be asked for any of them.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public enum Counter {
+	COLLISIONS("collisions"),
+	PEDESTRIANS_KILLED("pedestrians killed"),
+	CYCLISTS_KILLED("cyclists killed"),
+	MOTORISTS_KILLED("motorists killed"),
+	PEDESTRIANS_INJURED("pedestrians injured"),
+	CYCLISTS_INJURED("cyclists injured"),
+	MOTORISTS_INJURED("motorists injured");
+
+	private final String label;
+
+	Counter(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * Returns the value of this counter in an array of totals
+	 *
+	 * @param totals totals in the order used by CollisionsData.getTotals
+	 * @return the value
+	 */
+	public int of(int[] totals) {
+		return totals[ordinal()];
+	}
+
+	/**
+	 * Returns the name of the counter as printed in reports
+	 * @return the label
+	 */
+	public String label() {
+		return label;
+	}
+
+	/**
+	 * Returns the counter with the given name, as typed by the user
+	 * (pedestrians_killed, pedestrians-killed or "pedestrians killed", in
+	 * any case).
+	 *
+	 * @param name the name of the counter
+	 * @return the counter
+	 * @throws IllegalArgumentException if there is no counter of that name
+	 */
+	public static Counter parse(String name) throws IllegalArgumentException {
+		String normalized = name.trim().replace('-', '_').replace(' ', '_');
+		for (Counter counter : values()) {
+			if (counter.name().equalsIgnoreCase(normalized))
+				return counter;
+		}
+		throw new IllegalArgumentException("unknown counter " + name);
+	}
+}
@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.InputMismatchException;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -5,12 +7,19 @@ import java.util.Scanner;
 /**
  * This class represents calendar dates.
  *
+ * A date is stored as a single int with the year, month and day in separate
+ * bit fields (see packed()), so comparing two dates is one int comparison.
+ *
  * @author Joanna Klukowska
  */
 public class Date implements Comparable<Date>{
-	private int year;
-	private int month;
-	private int day;
+	// bit positions of the fields in a packed date
+	private static final int YEAR_SHIFT = 9;
+	private static final int MONTH_SHIFT = 5;
+	private static final int DAY_MASK = 0x1F;
+	private static final int MONTH_MASK = 0x0F;
+
+	private int packed;
 
 
 	/**
@@ -20,6 +29,153 @@ public class Date implements Comparable<Date>{
 	 * correctly
 	 */
 	public Date(String s) throws IllegalArgumentException{
+		packed = parse(s, 0, s.length());
+	}
+
+
+
+	/**
+	 * Creates a Date object using individual integer values for year, month and day.
+	 * @param year year for this date
+	 * @param month month for this date
+	 * @param day day for this date
+	 * @throws IllegalArgumentException when s does not contain valid values or is not formatted
+	 * correctly
+	 */
+	public Date(int year, int month, int day)  throws IllegalArgumentException{
+		if (year < 1900 || year > 2020)
+			throw new IllegalArgumentException ("year < 1900 or > 2020 detected");
+		if (month < 1 || month > 12)
+			throw new IllegalArgumentException ("month < 1 or > 12 detected");
+		if (day < 1 || day > 31)
+			throw new IllegalArgumentException ("day < 1 or > 31 detected");
+		packed = pack(year, month, day);
+	}
+
+
+
+	/*
+	 * Creates a Date object from a value returned by packed() or parse().
+	 */
+	private Date(int packed) {
+		this.packed = packed;
+	}
+
+
+
+	/**
+	 * Returns the Date object for a packed date.
+	 * @param packed a value returned by packed() or parse()
+	 * @return the date
+	 */
+	static Date fromPacked(int packed) {
+		return new Date(packed);
+	}
+
+
+
+	/**
+	 * Parses the characters of s between from and to in the format mm/dd/yyyy
+	 * and returns the packed date, without creating any objects for valid
+	 * input. It accepts and rejects exactly the same strings as the Scanner
+	 * based parsing this class used before: anything that is not plain digits
+	 * separated by slashes is handed to that parsing.
+	 * @param s the characters to parse
+	 * @param from index of the first character
+	 * @param to index one past the last character
+	 * @return the packed date
+	 * @throws IllegalArgumentException when the date is not valid
+	 */
+	static int parse(CharSequence s, int from, int to) throws IllegalArgumentException {
+		long month = parseField(s, from, to, false);
+		long day = month < 0 ? -1 : parseField(s, (int) (month >>> 32), to, false);
+		long year = day < 0 ? -1 : parseField(s, (int) (day >>> 32), to, true);
+		if (year < 0)
+			return parseWithScanner(s.subSequence(from, to).toString());
+		return validate((int) month, (int) day, (int) year);
+	}
+
+
+
+	/**
+	 * Parses the UTF-8 bytes of buffer between from and to in the format
+	 * mm/dd/yyyy and returns the packed date, exactly like parse(CharSequence).
+	 * @param buffer the bytes to parse
+	 * @param from index of the first byte
+	 * @param to index one past the last byte
+	 * @return the packed date
+	 * @throws IllegalArgumentException when the date is not valid
+	 */
+	static int parse(ByteBuffer buffer, int from, int to) throws IllegalArgumentException {
+		long month = parseField(buffer, from, to, false);
+		long day = month < 0 ? -1 : parseField(buffer, (int) (month >>> 32), to, false);
+		long year = day < 0 ? -1 : parseField(buffer, (int) (day >>> 32), to, true);
+		if (year < 0) {
+			byte[] bytes = new byte[to - from];
+			buffer.get(from, bytes);
+			return parseWithScanner(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return validate((int) month, (int) day, (int) year);
+	}
+
+
+
+	/*
+	 * Parses one field made of an optional sign and up to 9 digits, followed
+	 * by a slash (or, for the last field, by a slash or the end of the input).
+	 *
+	 * @return the index after the separator in the upper 32 bits and the value
+	 *   in the lower 32 bits, or -1 if the field does not have that form
+	 */
+	private static long parseField(CharSequence s, int p, int to, boolean last) {
+		boolean negative = p < to && s.charAt(p) == '-';
+		if (p < to && (negative || s.charAt(p) == '+'))
+			p++;
+		int value = 0;
+		int digits = 0;
+		while (p < to && s.charAt(p) >= '0' && s.charAt(p) <= '9' && digits < 9) {
+			value = value * 10 + (s.charAt(p++) - '0');
+			digits++;
+		}
+		boolean separated = p < to ? s.charAt(p) == '/' : last;
+		if (digits == 0 || !separated)
+			return -1;
+		return ((long) (p + 1) << 32) | ((negative ? -value : value) & 0xFFFFFFFFL);
+	}
+
+
+
+	/*
+	 * Same as parseField(CharSequence, ...) for UTF-8 bytes.
+	 */
+	private static long parseField(ByteBuffer buffer, int p, int to, boolean last) {
+		boolean negative = p < to && buffer.get(p) == '-';
+		if (p < to && (negative || buffer.get(p) == '+'))
+			p++;
+		int value = 0;
+		int digits = 0;
+		while (p < to && buffer.get(p) >= '0' && buffer.get(p) <= '9' && digits < 9) {
+			value = value * 10 + (buffer.get(p++) - '0');
+			digits++;
+		}
+		boolean separated = p < to ? buffer.get(p) == '/' : last;
+		if (digits == 0 || !separated)
+			return -1;
+		return ((long) (p + 1) << 32) | ((negative ? -value : value) & 0xFFFFFFFFL);
+	}
+
+
+
+	/*
+	 * Parses s with a Scanner using / as the delimiter. This is the original
+	 * parsing of this class, kept for the unusual input that the fast parsers
+	 * do not handle themselves (signs in odd places, grouping separators,
+	 * non-ASCII digits, missing fields, ...).
+	 */
+	static int parseWithScanner(String s) throws IllegalArgumentException {
+		int month;
+		int day;
+		int year;
 		Scanner tokenizer = new Scanner(s);
 		try {
 			tokenizer.useDelimiter("/");
@@ -35,37 +191,73 @@ public class Date implements Comparable<Date>{
 		catch (NoSuchElementException ex ){
 			throw new IllegalArgumentException ( "invalid date format");
 		}
+		return validate(month, day, year);
+	}
+
+
+
+	/*
+	 * Validates the fields of a date given as mm/dd/yyyy and packs them.
+	 */
+	private static int validate(int month, int day, int year) throws IllegalArgumentException {
 		if (month < 1 || month > 12)
 			throw new IllegalArgumentException ("month < 1 or > 12 detected");
 		if (day < 1 || day > 31)
 			throw new IllegalArgumentException ("day < 1 or > 31 detected");
 		if (year < 1900 || year > 2020)
 			throw new IllegalArgumentException ("year < 1900 or > 2020 detected");
+		return pack(year, month, day);
+	}
+
 
 
+	/*
+	 * Packs valid year, month and day values into one int.
+	 */
+	private static int pack(int year, int month, int day) {
+		return (year << YEAR_SHIFT) | (month << MONTH_SHIFT) | day;
 	}
 
 
 
 	/**
-	 * Creates a Date object using individual integer values for year, month and day.
-	 * @param year year for this date
-	 * @param month month for this date
-	 * @param day day for this date
-	 * @throws IllegalArgumentException when s does not contain valid values or is not formatted
-	 * correctly
+	 * Returns the year of this date
+	 * @return year
 	 */
-	public Date(int year, int month, int day)  throws IllegalArgumentException{
-		this.year = year;
-		this.month = month;
-		this.day = day;
-		if (year < 1900 || year > 2020)
-			throw new IllegalArgumentException ("year < 1900 or > 2020 detected");
-		if (month < 1 || month > 12)
-			throw new IllegalArgumentException ("month < 1 or > 12 detected");
-		if (day < 1 || day > 31)
-			throw new IllegalArgumentException ("day < 1 or > 31 detected");
+	public int getYear() {
+		return packed >>> YEAR_SHIFT;
+	}
+
+
+
+	/**
+	 * Returns the month of this date
+	 * @return month (1-12)
+	 */
+	public int getMonth() {
+		return (packed >>> MONTH_SHIFT) & MONTH_MASK;
+	}
 
+
+
+	/**
+	 * Returns the day of this date
+	 * @return day (1-31)
+	 */
+	public int getDay() {
+		return packed & DAY_MASK;
+	}
+
+
+
+	/**
+	 * Returns this date packed into a single int, with the year, month and
+	 * day in separate bit fields, so that packed dates compare in the same
+	 * order as the Date objects.
+	 * @return the packed date
+	 */
+	int packed() {
+		return packed;
 	}
 
 
@@ -84,13 +276,18 @@ public class Date implements Comparable<Date>{
 		if (!(obj instanceof Date))
 			return false;
 		Date other = (Date) obj;
-		if (day != other.day)
-			return false;
-		if (month != other.month)
-			return false;
-		if (year != other.year)
-			return false;
-		return true;
+		return packed == other.packed;
+	}
+
+
+
+	/**
+	 * Returns a hash code that is consistent with equals.
+	 * @return hash code of the date
+	 */
+	@Override
+	public int hashCode() {
+		return packed;
 	}
 
 
@@ -102,7 +299,7 @@ public class Date implements Comparable<Date>{
 	 */
 	@Override
 	public String toString() {
-		return String.format("%02d/%02d/%4d",month, day, year);
+		return String.format("%02d/%02d/%4d", getMonth(), getDay(), getYear());
 	}
 
 
@@ -114,13 +311,9 @@ public class Date implements Comparable<Date>{
 	 */
 	@Override
 	public int compareTo(Date o) {
-		if (this.year != o.year)
-			return this.year - o.year;
-		if (this.month != o.month)
-			return this.month - o.month;
-		return this.day - o.day;
+		return this.packed - o.packed;
 	}
 
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * This class measures the cost of parsing and comparing dates. It times the
+ * allocation-free Date.parse against the Scanner based parsing Date used
+ * before, and the packed int comparison against a field by field comparison
+ * of year, month and day.
+ *
+ * Usage: java DateBenchmark [number of dates] [rounds]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class DateBenchmark {
+
+	// keeps the JIT from discarding the measured work
+	private static long sink;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// Random dates in the format used by the collisions file
+		Random random = new Random(42);
+		String[] text = new String[count];
+		Date[] dates = new Date[count];
+		int[][] fields = new int[count][];
+		for (int i = 0; i < count; i++) {
+			int year = 2012 + random.nextInt(8);
+			int month = 1 + random.nextInt(12);
+			int day = 1 + random.nextInt(28);
+			text[i] = String.format("%02d/%02d/%4d", month, day, year);
+			dates[i] = new Date(year, month, day);
+			fields[i] = new int[] {year, month, day};
+		}
+
+		long scanner = Long.MAX_VALUE, fast = Long.MAX_VALUE;
+		long scannerBytes = 0, fastBytes = 0;
+		long fieldCompare = Long.MAX_VALUE, packedCompare = Long.MAX_VALUE;
+		for (int round = 0; round < rounds; round++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				sink += Date.parseWithScanner(text[i]);
+			scanner = Math.min(scanner, System.nanoTime() - start);
+			scannerBytes = allocatedBytes() - bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				sink += Date.parse(text[i], 0, text[i].length());
+			fast = Math.min(fast, System.nanoTime() - start);
+			fastBytes = allocatedBytes() - bytes;
+
+			start = System.nanoTime();
+			for (int i = 1; i < count; i++)
+				sink += compareFields(fields[i - 1], fields[i]);
+			fieldCompare = Math.min(fieldCompare, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 1; i < count; i++)
+				sink += dates[i - 1].compareTo(dates[i]);
+			packedCompare = Math.min(packedCompare, System.nanoTime() - start);
+		}
+
+		System.out.println(count + " dates, best of " + rounds + " rounds");
+		print("parse (Scanner)", scanner, count, scannerBytes);
+		print("parse (packed)", fast, count, fastBytes);
+		print("compare (y/m/d fields)", fieldCompare, count, 0);
+		print("compare (packed int)", packedCompare, count, 0);
+		System.out.println(String.format("Parse speedup: %.1fx, compare speedup: %.1fx", (double) scanner / fast,
+				(double) fieldCompare / packedCompare));
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/*
+	 * The three step comparison Date.compareTo used before dates were packed.
+	 */
+	private static int compareFields(int[] a, int[] b) {
+		if (a[0] != b[0])
+			return a[0] - b[0];
+		if (a[1] != b[1])
+			return a[1] - b[1];
+		return a[2] - b[2];
+	}
+
+	/*
+	 * Returns the number of bytes allocated so far by the current thread, or 0
+	 * if the JVM does not report it.
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/*
+	 * Prints the time per operation and the bytes allocated per operation.
+	 */
+	private static void print(String name, long nanos, int count, long bytes) {
+		System.out.println(String.format("%-24s %8.1f ns/op %8.1f bytes/op", name, (double) nanos / count,
+				(double) bytes / count));
+	}
+}
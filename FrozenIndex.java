@@ -0,0 +1,169 @@
+import java.util.HashMap;
+
+/**
+ * This class is a read-only index for reports that is built once the
+ * records are loaded and keeps them in a few flat arrays instead of tree
+ * nodes spread over the heap.
+ *
+ * Every record is reduced to a long key holding the ordinal of its zip code
+ * (zip codes are numbered in sorted order) in the high 32 bits and its
+ * packed date in the low bits, so keys sort like the records. The keys are
+ * stored in Eytzinger order: the root of an implicit balanced search tree
+ * at index 1 and the children of index k at 2k and 2k + 1. A search reads
+ * one array going down, and the first levels, which every search reads,
+ * share a few cache lines that stay in cache; a tree of nodes takes a cache
+ * miss for almost every level instead.
+ *
+ * Next to every key, in the same order, the index keeps the totals of the
+ * seven counters over all records before it in sorted order. The totals of
+ * a zip code and date range are the difference of the totals found by two
+ * searches, so a report reads O(log n) keys and two rows of totals however
+ * many records match.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class FrozenIndex implements ReportIndex {
+
+	// ordinal of every zip code
+	private final HashMap<String, Integer> zipOrdinals = new HashMap<String, Integer>();
+	// number of records
+	private final int size;
+	// keys in Eytzinger order, from index 1
+	private final long[] keys;
+	// before[7 * k] to before[7 * k + 6] are the totals of the records before
+	// keys[k]; row 0 holds the totals of all records
+	private final int[] before;
+
+	// position in the sorted records and running totals while building
+	private int next;
+	private final int[] running = new int[7];
+
+	/**
+	 * Builds the index from the records of a tree.
+	 *
+	 * @param tree the tree holding the records
+	 */
+	public FrozenIndex(CollisionsData tree) {
+		this(tree.toArray());
+	}
+
+	/**
+	 * Builds the index from a batch of records. The records are sorted first
+	 * unless they already are in order. Null records are skipped.
+	 *
+	 * @param records the collision records
+	 */
+	public FrozenIndex(Collision[] records) {
+		Collision[] sorted = CollisionsData.sortedCopy(records);
+		size = sorted.length;
+		keys = new long[size + 1];
+		before = new int[7 * (size + 1)];
+
+		long[] sortedKeys = new long[size];
+		for (int i = 0; i < size; i++) {
+			String zip = sorted[i].getZip();
+			Integer ordinal = zipOrdinals.get(zip);
+			if (ordinal == null) {
+				ordinal = zipOrdinals.size();
+				zipOrdinals.put(zip, ordinal);
+			}
+			sortedKeys[i] = key(ordinal, sorted[i].getDate().packed());
+		}
+		fill(sorted, sortedKeys, 1);
+		System.arraycopy(running, 0, before, 0, 7);
+	}
+
+	/*
+	 * Places the sorted records in the subtree rooted at index k, in order:
+	 * the left subtree, k, then the right subtree.
+	 */
+	private void fill(Collision[] sorted, long[] sortedKeys, int k) {
+		if (k > size)
+			return;
+		fill(sorted, sortedKeys, 2 * k);
+		Collision record = sorted[next];
+		keys[k] = sortedKeys[next++];
+		System.arraycopy(running, 0, before, 7 * k, 7);
+		running[0]++;
+		running[1] += record.getPedestriansKilled();
+		running[2] += record.getCyclistsKilled();
+		running[3] += record.getMotoristsKilled();
+		running[4] += record.getPedestriansInjured();
+		running[5] += record.getCyclistsInjured();
+		running[6] += record.getMotoristsInjured();
+		fill(sorted, sortedKeys, 2 * k + 1);
+	}
+
+	/*
+	 * Returns the key of a zip code ordinal and packed date.
+	 */
+	private static long key(int ordinal, int date) {
+		return (long) ordinal << 32 | date;
+	}
+
+	/*
+	 * Returns the index of the first key that is not smaller than the given
+	 * one, or 0 if there is none. Going down, the path is recorded in the
+	 * bits of k (1 for every step to the right); the answer is the last node
+	 * where the search went left, found by dropping the trailing ones and
+	 * the zero before them.
+	 */
+	private int lowerBound(long key) {
+		int k = 1;
+		while (k <= size)
+			k = 2 * k + (keys[k] < key ? 1 : 0);
+		return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+	}
+
+	/**
+	 * Returns the number of records in the index
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range from the totals before the first record of the range
+	 *   and before the first record after it.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		Integer ordinal = zipOrdinals.get(zip);
+		if (ordinal == null || dateBegin.compareTo(dateEnd) > 0)
+			return report;
+
+		// packed dates keep the day in the low bits, so + 1 is after dateEnd
+		int first = 7 * lowerBound(key(ordinal, dateBegin.packed()));
+		int last = 7 * lowerBound(key(ordinal, dateEnd.packed() + 1));
+		for (int k = 0; k < 7; k++)
+			report[k] = before[last + k] - before[first + k];
+		return report;
+	}
+}
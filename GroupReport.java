@@ -0,0 +1,94 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the totals of a group report: the totals of every zip
+ * code of a ZipSelection that has collisions in the date range, in zip code
+ * order, and the combined totals of the group.
+ *
+ * Totals are arrays in the order used by CollisionsData.getTotals: number of
+ * collisions, pedestrians/cyclists/motorists killed and
+ * pedestrians/cyclists/motorists injured.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class GroupReport {
+
+	private final ZipSelection zips;
+	private final Date dateBegin;
+	private final Date dateEnd;
+	private final LinkedHashMap<String, int[]> totals = new LinkedHashMap<String, int[]>();
+	private final int[] combined = new int[7];
+
+	/**
+	 * Creates an empty report
+	 *
+	 * @param zips the zip codes of the report
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 */
+	public GroupReport(ZipSelection zips, Date dateBegin, Date dateEnd) {
+		this.zips = zips;
+		this.dateBegin = dateBegin;
+		this.dateEnd = dateEnd;
+	}
+
+	/*
+	 * Adds the totals of a zip code. Zip codes are added in order, each once.
+	 */
+	void add(String zip, int[] report) {
+		totals.put(zip, report.clone());
+		for (int i = 0; i < combined.length; i++)
+			combined[i] += report[i];
+	}
+
+	/**
+	 * Returns the zip codes that have collisions in the date range, in order
+	 * @return the zip codes
+	 */
+	public Set<String> getZips() {
+		return totals.keySet();
+	}
+
+	/**
+	 * Returns the totals of one zip code (all zero if it has no collisions)
+	 *
+	 * @param zip the zip code
+	 * @return the totals
+	 */
+	public int[] getTotals(String zip) {
+		int[] report = totals.get(zip);
+		return report == null ? new int[7] : report.clone();
+	}
+
+	/**
+	 * Returns the totals of the whole group
+	 * @return the totals
+	 */
+	public int[] getCombined() {
+		return combined.clone();
+	}
+
+	/*
+	 * Produces the text of the report: the combined totals in the format of
+	 *   a single zip code report, followed by one line per zip code.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(CollisionsData.formatReport(combined, zips.toString(), dateBegin, dateEnd));
+		if (combined[0] == 0)
+			return sb.toString();
+		sb.append("Per zip code:\n");
+		for (Map.Entry<String, int[]> entry : totals.entrySet()) {
+			int[] report = entry.getValue();
+			sb.append("  ").append(entry.getKey()).append(": ").append(report[0]).append(" collisions, ")
+					.append(report[1] + report[2] + report[3]).append(" fatalities, ")
+					.append(report[4] + report[5] + report[6]).append(" injuries\n");
+		}
+		return sb.toString();
+	}
+}
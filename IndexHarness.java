@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class checks that every index of IndexRegistry gives the same
+ * reports as the AVL tree and compares their build time, memory and report
+ * latency on the same records and queries.
+ *
+ * Conformance: the totals and the text of every report of the query mix of
+ * ReportBenchmark must equal the ones of CollisionsData. The indexes that
+ * keep the keys of the records (CompressedCollisions) must give them back
+ * in sorted order. The indexes that can change (CollisionIndex) must also
+ * pass the records of a range that add up to the totals of the range, and
+ * must give the same totals again after a sample of records was removed and
+ * added back.
+ *
+ * Benchmark: the build time, the heap retained by the index beyond the
+ * records (measured after a collection, so it is approximate), and the mean,
+ * p50 and p99 latency of getTotals over the query mix.
+ *
+ * The program exits with status 1 if an index does not conform.
+ *
+ * Usage: java IndexHarness file [number of queries] [index names...]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class IndexHarness {
+
+	// records removed and added back by the change check
+	static final int CHANGES = 1000;
+
+	// keeps the JIT from discarding the measured work
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage Error: java IndexHarness file [number of queries] [index names...]");
+			System.exit(0);
+		}
+		File file = new File(args[0]);
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 2; i < args.length; i++)
+			names.add(args[i]);
+		if (names.isEmpty())
+			names.addAll(IndexRegistry.names());
+
+		Collision[] records = ParallelLoader.loadSorted(file.toPath(), Runtime.getRuntime().availableProcessors());
+		if (records.length == 0) {
+			System.err.println("ERROR: the file " + file + " holds no valid records");
+			System.exit(1);
+		}
+		String[] zips = new String[count];
+		Date[] begins = new Date[count];
+		Date[] ends = new Date[count];
+		ReportBenchmark.queryMix(records, new Random(42), zips, begins, ends);
+
+		// The expected answers come from the AVL tree
+		CollisionsData reference = new CollisionsData(records);
+		int[][] expected = new int[count][];
+		for (int i = 0; i < count; i++)
+			expected[i] = reference.getTotals(zips[i], begins[i], ends[i]);
+		String[] expectedText = new String[Math.min(count, 1000)];
+		for (int i = 0; i < expectedText.length; i++)
+			expectedText[i] = reference.getReport(zips[i], begins[i], ends[i]);
+		reference = null;
+
+		System.out.println(records.length + " records, " + count + " queries");
+		System.out.println(String.format("%-12s %10s %10s %10s %10s %10s  %s", "index", "build ms", "heap MB",
+				"mean ns", "p50 ns", "p99 ns", "conformance"));
+		boolean conform = true;
+		for (String name : names) {
+			long heapBefore = usedHeap();
+			long start = System.nanoTime();
+			ReportIndex index = IndexRegistry.create(name, records);
+			long build = System.nanoTime() - start;
+			long heap = usedHeap() - heapBefore;
+
+			String failure = check(index, records, zips, begins, ends, expected, expectedText);
+			conform &= failure == null;
+
+			// Best of three passes over the queries, one histogram per pass
+			Metrics.Histogram best = null;
+			long bestTotal = Long.MAX_VALUE;
+			for (int round = 0; round < 3; round++) {
+				Metrics.Histogram latencies = new Metrics.Histogram();
+				long total = 0;
+				for (int i = 0; i < count; i++) {
+					long queryStart = System.nanoTime();
+					sink += index.getTotals(zips[i], begins[i], ends[i])[0];
+					long nanos = System.nanoTime() - queryStart;
+					latencies.record(nanos);
+					total += nanos;
+				}
+				if (total < bestTotal) {
+					bestTotal = total;
+					best = latencies;
+				}
+			}
+			System.out.println(String.format("%-12s %10.1f %10.1f %10.1f %10d %10d  %s", name, build / 1e6,
+					heap / 1048576.0, (double) bestTotal / count, best.percentile(50), best.percentile(99),
+					failure == null ? "ok" : failure));
+			index = null;
+		}
+		if (sink == 42)
+			System.out.println();
+		if (!conform)
+			System.exit(1);
+	}
+
+	/*
+	 * Returns null if the index gives the expected answers, otherwise the
+	 * first difference found.
+	 */
+	static String check(ReportIndex index, Collision[] records, String[] zips, Date[] begins, Date[] ends,
+			int[][] expected, String[] expectedText) {
+		for (int i = 0; i < zips.length; i++) {
+			if (!Arrays.equals(expected[i], index.getTotals(zips[i], begins[i], ends[i])))
+				return "totals differ for " + zips[i] + " " + begins[i] + " - " + ends[i];
+		}
+		for (int i = 0; i < expectedText.length; i++) {
+			if (!expectedText[i].equals(index.getReport(zips[i], begins[i], ends[i])))
+				return "report differs for " + zips[i] + " " + begins[i] + " - " + ends[i];
+		}
+		if (index instanceof CompressedCollisions) {
+			// the keys are stored, so they have to come back out
+			CompressedCollisions compressed = (CompressedCollisions) index;
+			for (int i = 0; i < records.length; i++) {
+				if (!records[i].getKey().equals(compressed.getKey(i)))
+					return "key " + i + " is " + compressed.getKey(i) + " instead of " + records[i].getKey();
+			}
+		}
+		if (!(index instanceof CollisionIndex))
+			return null;
+
+		CollisionIndex changing = (CollisionIndex) index;
+		if (changing.size() != records.length)
+			return "size " + changing.size() + " instead of " + records.length;
+		for (int i = 0; i < Math.min(zips.length, 1000); i++) {
+			int[] sum = new int[7];
+			changing.forEachInRange(zips[i], begins[i], ends[i], record -> {
+				sum[0]++;
+				sum[1] += record.getPedestriansKilled();
+				sum[2] += record.getCyclistsKilled();
+				sum[3] += record.getMotoristsKilled();
+				sum[4] += record.getPedestriansInjured();
+				sum[5] += record.getCyclistsInjured();
+				sum[6] += record.getMotoristsInjured();
+			});
+			if (!Arrays.equals(expected[i], sum))
+				return "forEachInRange differs for " + zips[i] + " " + begins[i] + " - " + ends[i];
+		}
+
+		Random random = new Random(7);
+		Collision[] sample = new Collision[Math.min(CHANGES, records.length)];
+		// one record from each of sample.length equal slices, so none twice
+		int slice = records.length / sample.length;
+		for (int i = 0; i < sample.length; i++) {
+			sample[i] = records[i * slice + random.nextInt(slice)];
+			if (!changing.remove(sample[i]))
+				return "remove did not find a record";
+		}
+		if (changing.size() != records.length - sample.length)
+			return "size after remove " + changing.size();
+		changing.addAll(sample);
+		for (int i = 0; i < zips.length; i++) {
+			if (!Arrays.equals(expected[i], index.getTotals(zips[i], begins[i], ends[i])))
+				return "totals differ after remove and add for " + zips[i];
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the heap in use after a few collections.
+	 */
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
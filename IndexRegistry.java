@@ -0,0 +1,89 @@
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * This class creates the report indexes by name, so that the index used by
+ * CollisionInfo (--index name) and by the benchmarks can be chosen without
+ * changing their code. Every index is built from a batch of loaded records:
+ *
+ *   avl         CollisionsData, the AVL tree (the default)
+ *   persistent  PersistentCollisionsData, changed while reports run
+ *   columnar    ColumnarCollisions, compact column arrays
+ *   zipindex    ZipDateIndex, per zip code running sums (read-only)
+ *   rollup      RollupCube, per zip code month and day totals kept in step
+ *               with an AVL tree
+ *   frozen      FrozenIndex, flat Eytzinger ordered arrays (read-only)
+ *   offheap     OffHeapCollisions, fixed-width records in direct buffers
+ *               outside of the heap (read-only)
+ *   compressed  CompressedCollisions, delta and varint encoded blocks per
+ *               zip code, decoded while reports run (read-only)
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class IndexRegistry {
+
+	private static final LinkedHashMap<String, Function<Collision[], ReportIndex>> FACTORIES =
+			new LinkedHashMap<String, Function<Collision[], ReportIndex>>();
+
+	static {
+		register("avl", CollisionsData::new);
+		register("persistent", PersistentCollisionsData::new);
+		register("columnar", ColumnarCollisions::new);
+		register("zipindex", ZipDateIndex::new);
+		register("rollup", records -> new RollupCube(new CollisionsData(records)));
+		register("frozen", FrozenIndex::new);
+		register("offheap", OffHeapCollisions::new);
+		register("compressed", CompressedCollisions::new);
+	}
+
+	private IndexRegistry() {
+	}
+
+	/**
+	 * Adds an index, or replaces the index of the same name.
+	 *
+	 * @param name the name of the index
+	 * @param factory builds the index from a batch of records
+	 */
+	public static synchronized void register(String name, Function<Collision[], ReportIndex> factory) {
+		FACTORIES.put(name, factory);
+	}
+
+	/**
+	 * Returns the names of the indexes, in the order they were registered
+	 * @return the names
+	 */
+	public static synchronized Set<String> names() {
+		return new LinkedHashMap<String, Function<Collision[], ReportIndex>>(FACTORIES).keySet();
+	}
+
+	/**
+	 * Tells whether an index of the given name exists
+	 *
+	 * @param name the name of the index
+	 * @return true if it exists
+	 */
+	public static synchronized boolean contains(String name) {
+		return FACTORIES.containsKey(name);
+	}
+
+	/**
+	 * Builds an index from a batch of records.
+	 *
+	 * @param name the name of the index
+	 * @param records the records, in any order
+	 * @return the index
+	 * @throws IllegalArgumentException if there is no index of that name
+	 */
+	public static ReportIndex create(String name, Collision[] records) throws IllegalArgumentException {
+		Function<Collision[], ReportIndex> factory;
+		synchronized (IndexRegistry.class) {
+			factory = FACTORIES.get(name);
+		}
+		if (factory == null)
+			throw new IllegalArgumentException("unknown index " + name + ", expected one of " + names());
+		return factory.apply(records);
+	}
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * This class compares the throughput of the two ways of reading the
+ * collisions file: the original Scanner + splitCSVLine path and the memory
+ * mapped CSVMappedReader path. Both build a Collision for every row but do
+ * not insert it into a tree, so only the ingest cost is measured.
+ *
+ * It then times ParallelLoader with an increasing number of threads and
+ * checks that every thread count produces the same sorted records.
+ *
+ * Usage: java IngestBenchmark file [rounds]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class IngestBenchmark {
+
+	// number of accepted records and a checksum of their contents for the last run
+	private static int accepted;
+	private static long checksum;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage Error: java IngestBenchmark file [rounds]");
+			System.exit(0);
+		}
+		File file = new File(args[0]);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		long bestScanner = Long.MAX_VALUE;
+		long bestMapped = Long.MAX_VALUE;
+		int scannerRecords = 0;
+		int mappedRecords = 0;
+		long scannerChecksum = 0;
+		long mappedChecksum = 0;
+
+		// Alternate the two paths so that both see the same page cache state
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			readWithScanner(file);
+			bestScanner = Math.min(bestScanner, System.nanoTime() - start);
+			scannerRecords = accepted;
+			scannerChecksum = checksum;
+
+			start = System.nanoTime();
+			readMapped(file);
+			bestMapped = Math.min(bestMapped, System.nanoTime() - start);
+			mappedRecords = accepted;
+			mappedChecksum = checksum;
+		}
+
+		if (scannerRecords != mappedRecords || scannerChecksum != mappedChecksum)
+			System.err.println("WARNING: the two readers produced different records");
+
+		System.out.println("File: " + file + " (" + file.length() + " bytes, " + scannerRecords
+				+ " records, best of " + rounds + " rounds)");
+		print("Scanner + splitCSVLine", bestScanner, scannerRecords, file.length());
+		print("CSVMappedReader", bestMapped, mappedRecords, file.length());
+		System.out.println(String.format("Speedup: %.2fx", (double) bestScanner / bestMapped));
+
+		// Parallel loading at 1, 2, 4, ... threads up to the number of cores
+		Collision[] expected = null;
+		long single = 0;
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1;; threads = Math.min(threads * 2, cores)) {
+			long best = Long.MAX_VALUE;
+			Collision[] records = null;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				records = ParallelLoader.loadSorted(file.toPath(), threads);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if (expected == null) {
+				expected = records;
+				single = best;
+			} else if (!Arrays.equals(expected, records)) {
+				System.err.println("WARNING: " + threads + " threads produced different records");
+			}
+			print("ParallelLoader x" + threads, best, records.length, file.length());
+			System.out.println(String.format("%-24s %.2fx", "  scaling", (double) single / best));
+			if (threads == cores)
+				break;
+		}
+	}
+
+	/*
+	 * Reads the file the way CollisionInfo originally did.
+	 */
+	private static void readWithScanner(File file) throws FileNotFoundException {
+		accepted = 0;
+		checksum = 0;
+		Scanner input = new Scanner(file);
+		while (input.hasNextLine()) {
+			ArrayList<String> entries = CollisionInfo.splitCSVLine(input.nextLine());
+			try {
+				record(new Collision(entries));
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+		}
+		input.close();
+	}
+
+	/*
+	 * Reads the file through the memory mapped reader.
+	 */
+	private static void readMapped(File file) throws IOException {
+		accepted = 0;
+		checksum = 0;
+		CSVMappedReader.read(file.toPath(), row -> {
+			try {
+				record(new Collision(row));
+			} catch (IllegalArgumentException e) {
+				// skip the invalid record
+			}
+		});
+	}
+
+	/*
+	 * Counts the record and folds its contents into the checksum, which also
+	 * keeps the JIT from discarding the parsing work.
+	 */
+	private static void record(Collision collision) {
+		accepted++;
+		checksum = checksum * 31 + collision.getZip().hashCode() + collision.getKey().hashCode()
+				+ collision.getDate().hashCode() + collision.getPersonsInjured() + collision.getPersonsKilled()
+				+ collision.getPedestriansInjured() + collision.getPedestriansKilled() + collision.getCyclistsInjured()
+				+ collision.getCyclistsKilled() + collision.getMotoristsInjured() + collision.getMotoristsKilled();
+	}
+
+	/*
+	 * Prints the time and throughput of one path.
+	 */
+	private static void print(String name, long nanos, int records, long bytes) {
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%-24s %8.1f ms %12.0f records/s %8.1f MB/s", name, nanos / 1e6,
+				records / seconds, bytes / seconds / 1e6));
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends report requests to a running ReportServer from a number
+ * of concurrent clients and prints the throughput and the latency
+ * percentiles seen by the clients.
+ *
+ * The requests follow the query mix of ReportBenchmark, built from the
+ * records of the csv file the server was started with.
+ *
+ * Usage: java LoadGenerator file [url] [number of requests] [clients]
+ *   (default url http://localhost:8080)
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class LoadGenerator {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage Error: java LoadGenerator file [url] [number of requests] [clients]");
+			System.exit(0);
+		}
+		File file = new File(args[0]);
+		String url = args.length > 1 ? args[1] : "http://localhost:8080";
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int clients = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		if (count < 1 || clients < 1) {
+			System.err.println("Usage Error: the number of requests and of clients must be positive");
+			System.exit(0);
+		}
+
+		Collision[] records = ParallelLoader.loadSorted(file.toPath(), Runtime.getRuntime().availableProcessors());
+		if (records.length == 0) {
+			System.err.println("ERROR: the file " + file + " holds no valid records");
+			System.exit(1);
+		}
+		String[] zips = new String[count];
+		Date[] begins = new Date[count];
+		Date[] ends = new Date[count];
+		ReportBenchmark.queryMix(records, new Random(42), zips, begins, ends);
+		URI[] uris = new URI[count];
+		for (int i = 0; i < count; i++)
+			uris[i] = URI.create(url + "/report?zip=" + URLEncoder.encode(zips[i], StandardCharsets.UTF_8)
+					+ "&start=" + URLEncoder.encode(begins[i].toString(), StandardCharsets.UTF_8) + "&end="
+					+ URLEncoder.encode(ends[i].toString(), StandardCharsets.UTF_8));
+
+		HttpClient client = HttpClient.newBuilder().executor(ReportServer.newPerRequestExecutor()).build();
+		long[] latencies = new long[count];
+		AtomicInteger next = new AtomicInteger();
+		AtomicLong failures = new AtomicLong();
+
+		// Every client sends its next request as soon as the previous one is answered
+		Thread[] threads = new Thread[clients];
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; c++) {
+			threads[c] = new Thread(() -> {
+				int i;
+				while ((i = next.getAndIncrement()) < count) {
+					long sent = System.nanoTime();
+					try {
+						HttpResponse<String> response = client.send(HttpRequest.newBuilder(uris[i]).GET().build(),
+								HttpResponse.BodyHandlers.ofString());
+						if (response.statusCode() != 200)
+							failures.incrementAndGet();
+					} catch (IOException e) {
+						failures.incrementAndGet();
+					} catch (InterruptedException e) {
+						return;
+					}
+					latencies[i] = System.nanoTime() - sent;
+				}
+			});
+			threads[c].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latencies);
+		System.out.println(String.format("%d requests, %d clients, %d failed", count, clients, failures.get()));
+		System.out.println(String.format("%.0f requests/s", count / seconds));
+		System.out.println(String.format("latency p50 %d us, p90 %d us, p99 %d us, p99.9 %d us, max %d us",
+				percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+				percentile(latencies, 99.9), latencies[count - 1] / 1000));
+	}
+
+	/*
+	 * Returns a percentile of sorted latencies in microseconds.
+	 */
+	private static long percentile(long[] sorted, double percent) {
+		int rank = (int) Math.ceil(sorted.length * percent / 100) - 1;
+		return sorted[Math.max(rank, 0)] / 1000;
+	}
+}
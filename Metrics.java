@@ -0,0 +1,242 @@
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class collects the counters and histograms of the running program:
+ *
+ *   ingest     rows read, records loaded and rows rejected, by the reason
+ *              given by the Collision constructor
+ *   tree       rotations of CollisionsData by type, and the height and size
+ *              of the loaded tree (gauges registered by CollisionInfo)
+ *   report     number of getTotals calls of CollisionsData, their latency
+ *              and the number of nodes visited per call
+ *
+ * Recording is done on the hot paths, so it never allocates once a counter
+ * exists: counters are LongAdders and histograms are fixed arrays of
+ * buckets updated with atomic increments. Reading is done through snapshot,
+ * which returns every value by name, or through a periodic dump.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class Metrics {
+
+	// most distinct rejection reasons; later ones are counted as "other"
+	static final int MAX_REASONS = 32;
+
+	// ingest
+	static final LongAdder rowsRead = new LongAdder();
+	static final LongAdder recordsLoaded = new LongAdder();
+	static final LongAdder rowsRejected = new LongAdder();
+	private static final ConcurrentHashMap<String, LongAdder> rejectReasons = new ConcurrentHashMap<String, LongAdder>();
+
+	// tree
+	static final LongAdder rotationsLeftLeft = new LongAdder();
+	static final LongAdder rotationsRightRight = new LongAdder();
+	static final LongAdder rotationsLeftRight = new LongAdder();
+	static final LongAdder rotationsRightLeft = new LongAdder();
+
+	// reports
+	static final Histogram reportLatency = new Histogram();
+	static final Histogram reportNodesVisited = new Histogram();
+
+	// values read when a snapshot is taken, by name
+	private static final ConcurrentSkipListMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<String, LongSupplier>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Counts a row that was not a valid record. The reason is the message of
+	 * the exception thrown by the Collision constructor; number format errors
+	 * (whose messages hold the bad input) are counted under one reason.
+	 *
+	 * @param e the exception thrown for the row
+	 */
+	public static void rejected(RuntimeException e) {
+		rowsRejected.increment();
+		String reason = e instanceof NumberFormatException || e.getMessage() == null ? "Invalid number"
+				: e.getMessage();
+		LongAdder counter = rejectReasons.get(reason);
+		if (counter == null) {
+			if (rejectReasons.size() >= MAX_REASONS)
+				reason = "other";
+			counter = rejectReasons.computeIfAbsent(reason, k -> new LongAdder());
+		}
+		counter.increment();
+	}
+
+	/**
+	 * Records one report: its latency and the number of tree nodes visited.
+	 *
+	 * @param nanos time taken by the report
+	 * @param nodesVisited number of nodes visited
+	 */
+	public static void report(long nanos, int nodesVisited) {
+		reportLatency.record(nanos);
+		reportNodesVisited.record(nodesVisited);
+	}
+
+	/**
+	 * Registers a value that is read every time a snapshot is taken, such as
+	 * the height of a tree. A gauge with the same name is replaced.
+	 *
+	 * @param name name of the value in the snapshot
+	 * @param gauge supplies the current value
+	 */
+	public static void registerGauge(String name, LongSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Returns the current value of every counter, gauge and histogram
+	 * summary, by name, in a stable order.
+	 *
+	 * @return the values by name
+	 */
+	public static LinkedHashMap<String, Long> snapshot() {
+		LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+		values.put("ingest.rows", rowsRead.sum());
+		values.put("ingest.records", recordsLoaded.sum());
+		values.put("ingest.rejected", rowsRejected.sum());
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(rejectReasons).entrySet())
+			values.put("ingest.rejected." + entry.getKey(), entry.getValue().sum());
+		values.put("tree.rotations.leftLeft", rotationsLeftLeft.sum());
+		values.put("tree.rotations.rightRight", rotationsRightRight.sum());
+		values.put("tree.rotations.leftRight", rotationsLeftRight.sum());
+		values.put("tree.rotations.rightLeft", rotationsRightLeft.sum());
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet())
+			values.put(entry.getKey(), entry.getValue().getAsLong());
+		reportLatency.summarize("report.latency_ns", values);
+		reportNodesVisited.summarize("report.nodes_visited", values);
+		return values;
+	}
+
+	/**
+	 * Prints a snapshot every period seconds on a daemon thread, followed by
+	 * the ingest rate over the period.
+	 *
+	 * @param out where the snapshots are printed
+	 * @param periodSeconds time between two snapshots
+	 * @return the scheduler, which can be shut down to stop the dump
+	 */
+	public static ScheduledExecutorService startDump(PrintStream out, long periodSeconds) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "metrics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long[] lastRows = {rowsRead.sum()};
+		scheduler.scheduleAtFixedRate(() -> {
+			LinkedHashMap<String, Long> values = snapshot();
+			long rows = values.get("ingest.rows");
+			StringBuilder sb = new StringBuilder("metrics:");
+			for (Map.Entry<String, Long> entry : values.entrySet())
+				sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+			sb.append(" ingest.rows_per_second=").append((rows - lastRows[0]) / periodSeconds);
+			lastRows[0] = rows;
+			out.println(sb);
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+		return scheduler;
+	}
+
+	/**
+	 * Histogram counts values in log-linear buckets without locks: every
+	 * power of two is split into 16 buckets, so a percentile is off by at
+	 * most 1/16 of its value. Values below 0 are counted as 0.
+	 */
+	static class Histogram {
+		private static final int SUB_BUCKETS = 16;
+		private static final int SUB_BITS = 4;
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLongArray maximum = new AtomicLongArray(1);
+		private final LongAdder total = new LongAdder();
+
+		void record(long value) {
+			value = Math.max(value, 0);
+			buckets.incrementAndGet(bucket(value));
+			total.add(value);
+			long max;
+			while (value > (max = maximum.get(0)) && !maximum.compareAndSet(0, max, value))
+				;
+		}
+
+		/*
+		 * Values below 16 get a bucket each; larger ones are placed by their
+		 * highest bit and the 4 bits below it.
+		 */
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) value;
+			int high = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (high - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return (high - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		/*
+		 * Returns the upper bound of the values in a bucket.
+		 */
+		private static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int high = bucket / SUB_BUCKETS + SUB_BITS - 1;
+			long sub = bucket % SUB_BUCKETS;
+			return ((SUB_BUCKETS + sub + 1) << (high - SUB_BITS)) - 1;
+		}
+
+		long count() {
+			long count = 0;
+			for (int i = 0; i < buckets.length(); i++)
+				count += buckets.get(i);
+			return count;
+		}
+
+		long max() {
+			return maximum.get(0);
+		}
+
+		/*
+		 * Returns the value below which the given percent of the values
+		 * fall (0 if nothing was recorded).
+		 */
+		long percentile(double percent) {
+			long[] counts = new long[buckets.length()];
+			long count = 0;
+			for (int i = 0; i < counts.length; i++)
+				count += counts[i] = buckets.get(i);
+			long rank = (long) Math.ceil(count * percent / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0)
+					return Math.min(upperBound(i), max());
+			}
+			return 0;
+		}
+
+		/*
+		 * Adds the count, mean, p50, p90, p99, p99.9 and max under the given
+		 * prefix.
+		 */
+		void summarize(String prefix, Map<String, Long> values) {
+			long count = count();
+			values.put(prefix + ".count", count);
+			values.put(prefix + ".mean", count == 0 ? 0 : total.sum() / count);
+			values.put(prefix + ".p50", percentile(50));
+			values.put(prefix + ".p90", percentile(90));
+			values.put(prefix + ".p99", percentile(99));
+			values.put(prefix + ".p999", percentile(99.9));
+			values.put(prefix + ".max", max());
+		}
+	}
+}
@@ -0,0 +1,430 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class keeps collision records outside of the Java heap, so that very
+ * large files can be loaded without a huge heap and without long garbage
+ * collections: the collector never has to visit the records.
+ *
+ * Every record takes 32 bytes of a direct ByteBuffer:
+ *
+ *   0   date (int, see Date.packed)
+ *   4   zip code (int, the index of the zip in the sorted table of zips)
+ *   8   key (long, see ColumnarCollisions.encodeKey)
+ *   16  persons injured, persons killed, pedestrians killed, cyclists
+ *       killed, motorists killed, pedestrians injured, cyclists injured and
+ *       motorists injured (unsigned shorts)
+ *
+ * A record whose counters do not fit in 16 bits has 0xffff as its first
+ * counter and, in place of the next two, the index of its counters in a
+ * small on-heap list.
+ *
+ * The buffers hold CHUNK_RECORDS records each (a single buffer cannot hold
+ * more than 2 GB) and record i is found at a fixed place of chunk
+ * i / CHUNK_RECORDS. The buffers are little-endian, so the first long of a
+ * record holds the zip code in its high bits and the date in its low bits.
+ * Once loaded, the records are sorted in place by that long and then by
+ * key, unless they already are in order of zip code and date (as the
+ * records of ParallelLoader are), so most comparisons are one long
+ * comparison. The heap only holds the table of zip codes with the first
+ * record of each, the keys that are not packed and the rare wide
+ * counters.
+ *
+ * Another buffer holds, for every BLOCK_RECORDS records, the totals of the
+ * counters of all records before them, so a report only reads the records
+ * of the partial blocks at the ends of its range, however long it is.
+ *
+ * The buffers count towards -XX:MaxDirectMemorySize (by default the same as
+ * -Xmx) and are freed when the index is collected.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class OffHeapCollisions implements ReportIndex {
+
+	// bytes taken by every record
+	static final int RECORD_SIZE = 32;
+	// records in every buffer
+	static final int CHUNK_SHIFT = 18;
+	static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+	// offset of the counters in a record
+	private static final int COUNTERS = 16;
+	// first counter of a record whose counters are kept on the heap
+	private static final short WIDE = (short) 0xffff;
+	// records between two rows of running totals
+	static final int BLOCK_SHIFT = 7;
+	static final int BLOCK_RECORDS = 1 << BLOCK_SHIFT;
+	// ranges shorter than this are sorted by insertion
+	private static final int INSERTION_SORT = 16;
+
+	// buffers holding the records
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	// number of records
+	private int size;
+	// totals of the six counters of a report over the records before every
+	// block, in ints
+	private ByteBuffer blockTotals;
+	// sorted distinct zip codes; the index of a zip is its code
+	private String[] zips;
+	// first record of every zip code, plus one entry for the end
+	private int[] zipStart;
+	// keys that are not packed
+	private final ArrayList<String> otherKeys = new ArrayList<String>();
+	// counters of the records that do not fit in 16 bits
+	private final ArrayList<int[]> wideCounters = new ArrayList<int[]>();
+
+	// code of every zip code while loading, in order of appearance
+	private HashMap<String, Integer> zipCodes = new HashMap<String, Integer>();
+	private ArrayList<String> zipList = new ArrayList<String>();
+
+	/**
+	 * Copies the given records off the heap. Null records are skipped.
+	 *
+	 * @param records the collision records, in any order
+	 */
+	public OffHeapCollisions(Collision[] records) {
+		for (Collision record : records) {
+			if (record != null)
+				append(record);
+		}
+		finish();
+	}
+
+	private OffHeapCollisions() {
+	}
+
+	/**
+	 * Loads a csv file straight into off-heap storage: every row is parsed
+	 * into a Collision, copied off the heap and dropped, so the heap needed
+	 * does not grow with the size of the file. Rows that do not hold a valid
+	 * record are skipped.
+	 *
+	 * @param path the csv file
+	 * @return the loaded records
+	 * @throws IOException if the file cannot be read
+	 */
+	public static OffHeapCollisions load(Path path) throws IOException {
+		OffHeapCollisions store = new OffHeapCollisions();
+		CSVMappedReader.read(path, row -> {
+			Metrics.rowsRead.increment();
+			try {
+				store.append(new Collision(row));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				// skip the invalid record (a missing key is reported as a
+				// NullPointerException)
+				Metrics.rejected(e);
+			}
+		});
+		Metrics.recordsLoaded.add(store.size);
+		store.finish();
+		return store;
+	}
+
+	/*
+	 * Writes a record after the last one, adding a buffer when the last one
+	 * is full.
+	 */
+	private void append(Collision record) {
+		if (size == chunks.length * CHUNK_RECORDS) {
+			chunks = Arrays.copyOf(chunks, chunks.length + 1);
+			chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		Integer code = zipCodes.get(record.getZip());
+		if (code == null) {
+			code = zipList.size();
+			zipCodes.put(record.getZip(), code);
+			zipList.add(record.getZip());
+		}
+		ByteBuffer chunk = chunks[size >>> CHUNK_SHIFT];
+		int offset = (size & CHUNK_MASK) * RECORD_SIZE;
+		size++;
+		chunk.putInt(offset, record.getDate().packed());
+		chunk.putInt(offset + 4, code);
+		chunk.putLong(offset + 8, ColumnarCollisions.encodeKey(record, otherKeys));
+
+		int[] counters = {record.getPersonsInjured(), record.getPersonsKilled(), record.getPedestriansKilled(),
+				record.getCyclistsKilled(), record.getMotoristsKilled(), record.getPedestriansInjured(),
+				record.getCyclistsInjured(), record.getMotoristsInjured()};
+		boolean wide = false;
+		for (int counter : counters)
+			wide |= counter >= 0xffff;
+		if (wide) {
+			chunk.putShort(offset + COUNTERS, WIDE);
+			chunk.putInt(offset + COUNTERS + 2, wideCounters.size());
+			wideCounters.add(counters);
+		} else {
+			for (int i = 0; i < counters.length; i++)
+				chunk.putShort(offset + COUNTERS + 2 * i, (short) counters[i]);
+		}
+	}
+
+	/*
+	 * Renumbers the zip codes in sorted order, sorts the records and finds
+	 * the first record of every zip code.
+	 */
+	private void finish() {
+		zips = zipList.toArray(new String[zipList.size()]);
+		Arrays.sort(zips);
+		int[] rank = new int[zips.length];
+		for (int code = 0; code < zips.length; code++)
+			rank[zipCodes.get(zips[code])] = code;
+		zipCodes = null;
+		zipList = null;
+
+		boolean sorted = true;
+		for (int i = 0; i < size; i++) {
+			ByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+			int offset = (i & CHUNK_MASK) * RECORD_SIZE;
+			chunk.putInt(offset + 4, rank[chunk.getInt(offset + 4)]);
+			sorted &= i == 0 || high(i - 1) <= high(i);
+		}
+		if (!sorted)
+			sort(0, size);
+
+		zipStart = new int[zips.length + 1];
+		for (int i = size - 1; i >= 0; i--)
+			zipStart[zip(i)] = i;
+		zipStart[zips.length] = size;
+
+		int blocks = (size >>> BLOCK_SHIFT) + 1;
+		blockTotals = ByteBuffer.allocateDirect(blocks * 24).order(ByteOrder.LITTLE_ENDIAN);
+		int[] running = new int[7];
+		for (int block = 0; block < blocks; block++) {
+			for (int k = 1; k < 7; k++)
+				blockTotals.putInt(block * 24 + 4 * (k - 1), running[k]);
+			int from = block << BLOCK_SHIFT;
+			addCounters(from, Math.min(size, from + BLOCK_RECORDS), running);
+		}
+	}
+
+	/*
+	 * Sorts the records from index from up to (not including) index to with
+	 * a quicksort that swaps them in place. The smaller part is sorted by
+	 * recursion and the larger one by the loop, so the stack stays shallow.
+	 */
+	private void sort(int from, int to) {
+		while (to - from > INSERTION_SORT) {
+			// Median of the first, middle and last records as the pivot
+			int last = to - 1;
+			int middle = (from + last) >>> 1;
+			if (compare(middle, high(from), key(from)) < 0)
+				swap(middle, from);
+			if (compare(last, high(middle), key(middle)) < 0) {
+				swap(last, middle);
+				if (compare(middle, high(from), key(from)) < 0)
+					swap(middle, from);
+			}
+			long pivotHigh = high(middle);
+			long pivotKey = key(middle);
+
+			int i = from - 1;
+			int j = to;
+			while (true) {
+				do
+					i++;
+				while (compare(i, pivotHigh, pivotKey) < 0);
+				do
+					j--;
+				while (compare(j, pivotHigh, pivotKey) > 0);
+				if (i >= j)
+					break;
+				swap(i, j);
+			}
+			if (j + 1 - from < to - j - 1) {
+				sort(from, j + 1);
+				from = j + 1;
+			} else {
+				sort(j + 1, to);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++) {
+			for (int j = i; j > from && compare(j - 1, high(j), key(j)) > 0; j--)
+				swap(j - 1, j);
+		}
+	}
+
+	/*
+	 * Compares record i with the record whose first long (zip code and date)
+	 * and key are given. Packed keys are compared as longs, like
+	 * Collision.compareTo does, and the others as Strings.
+	 */
+	private int compare(int i, long high, long key) {
+		long recordHigh = high(i);
+		if (recordHigh != high)
+			return recordHigh < high ? -1 : 1;
+		long recordKey = key(i);
+		if (recordKey >= 0 && key >= 0)
+			return Long.compare(recordKey, key);
+		return ColumnarCollisions.decodeKey(recordKey, otherKeys)
+				.compareTo(ColumnarCollisions.decodeKey(key, otherKeys));
+	}
+
+	/*
+	 * Swaps records i and j.
+	 */
+	private void swap(int i, int j) {
+		ByteBuffer first = chunks[i >>> CHUNK_SHIFT];
+		ByteBuffer second = chunks[j >>> CHUNK_SHIFT];
+		int firstOffset = (i & CHUNK_MASK) * RECORD_SIZE;
+		int secondOffset = (j & CHUNK_MASK) * RECORD_SIZE;
+		for (int k = 0; k < RECORD_SIZE; k += 8) {
+			long value = first.getLong(firstOffset + k);
+			first.putLong(firstOffset + k, second.getLong(secondOffset + k));
+			second.putLong(secondOffset + k, value);
+		}
+	}
+
+	/*
+	 * Returns the zip code and date of record i as one long (the zip code in
+	 * the high bits).
+	 */
+	private long high(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getLong((i & CHUNK_MASK) * RECORD_SIZE);
+	}
+
+	private long key(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getLong((i & CHUNK_MASK) * RECORD_SIZE + 8);
+	}
+
+	private int zip(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * RECORD_SIZE + 4);
+	}
+
+	private int date(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * RECORD_SIZE);
+	}
+
+	/**
+	 * Returns the number of records stored
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes allocated outside of the heap
+	 * @return bytes of the buffers
+	 */
+	public long offHeapBytes() {
+		return (long) chunks.length * CHUNK_RECORDS * RECORD_SIZE + blockTotals.capacity();
+	}
+
+	/**
+	 * Returns the key of record i (in sorted order)
+	 * @param i index of the record
+	 * @return the key
+	 */
+	public String getKey(int i) {
+		return ColumnarCollisions.decodeKey(key(i), otherKeys);
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range by finding the records of the range with two binary
+	 *   searches, then adding the counters of the records in the partial
+	 *   blocks at its ends to the difference of the totals before the whole
+	 *   blocks between them.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		int code = Arrays.binarySearch(zips, zip);
+		if (code < 0)
+			return report;
+
+		int first = firstOnOrAfter(zipStart[code], zipStart[code + 1], dateBegin.packed());
+		int last = firstOnOrAfter(first, zipStart[code + 1], dateEnd.packed() + 1);
+		report[0] = last - first;
+		int firstBlock = (first + BLOCK_RECORDS - 1) >>> BLOCK_SHIFT;
+		int lastBlock = last >>> BLOCK_SHIFT;
+		if (firstBlock >= lastBlock) {
+			addCounters(first, last, report);
+			return report;
+		}
+		addCounters(first, firstBlock << BLOCK_SHIFT, report);
+		addCounters(lastBlock << BLOCK_SHIFT, last, report);
+		for (int k = 1; k < 7; k++) {
+			int offset = 4 * (k - 1);
+			report[k] += blockTotals.getInt(lastBlock * 24 + offset) - blockTotals.getInt(firstBlock * 24 + offset);
+		}
+		return report;
+	}
+
+	/*
+	 * Adds the six counters of a report of the records from index from up to
+	 * (not including) index to to report[1] to report[6].
+	 */
+	private void addCounters(int from, int to, int[] report) {
+		// Read the buffers one at a time; every counter is 16 bits of one of
+		// the two longs after the key
+		for (int i = from; i < to;) {
+			ByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+			int end = Math.min(to, (i | CHUNK_MASK) + 1);
+			for (int offset = (i & CHUNK_MASK) * RECORD_SIZE + COUNTERS; i < end; i++, offset += RECORD_SIZE) {
+				long low = chunk.getLong(offset);
+				long high = chunk.getLong(offset + 8);
+				if ((short) low == WIDE) {
+					int[] counters = wideCounters.get((int) (low >>> 16));
+					for (int k = 1; k < 7; k++)
+						report[k] += counters[k + 1];
+					continue;
+				}
+				report[1] += (int) (low >>> 32) & 0xffff;
+				report[2] += (int) (low >>> 48);
+				report[3] += (int) high & 0xffff;
+				report[4] += (int) (high >>> 16) & 0xffff;
+				report[5] += (int) (high >>> 32) & 0xffff;
+				report[6] += (int) (high >>> 48);
+			}
+		}
+	}
+
+	/*
+	 * Finds the first record between from and to whose date is not before
+	 * the given packed date.
+	 *
+	 * @return index of the record, or to if there is none
+	 */
+	private int firstOnOrAfter(int from, int to, int date) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (date(middle) < date)
+				from = middle + 1;
+			else
+				to = middle;
+		}
+		return from;
+	}
+}
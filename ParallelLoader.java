@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class loads the collisions file in parallel. Every mapped window of
+ * the file is cut into chunks at newlines, the chunks are parsed and
+ * validated on a ForkJoinPool, every chunk is sorted into a run and the runs
+ * are merged as the tasks join. The merged records are then bulk loaded into
+ * a CollisionsData tree.
+ *
+ * Rows are lines, exactly as in the sequential loader (splitCSVLine starts
+ * every line outside of quotes), so cutting at any newline produces the same
+ * rows, and therefore the same records, as reading the file line by line.
+ * The merge is stable, so records that compare equal keep their file order.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ParallelLoader {
+
+	// chunks smaller than this are not split any further
+	static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Loads the file into a new CollisionsData tree using the given number of
+	 * threads. The merged records are already sorted, so the tree is bulk
+	 * built from them.
+	 *
+	 * @param path the collisions file
+	 * @param parallelism number of worker threads
+	 * @return tree holding every valid record of the file
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static CollisionsData load(Path path, int parallelism) throws IOException {
+		return new CollisionsData(loadSorted(path, parallelism));
+	}
+
+	/**
+	 * Reads every valid record of the file and returns them sorted.
+	 *
+	 * @param path the collisions file
+	 * @param parallelism number of worker threads
+	 * @return sorted array of the records
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static Collision[] loadSorted(Path path, int parallelism) throws IOException {
+		return loadSorted(path, parallelism, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads every valid record in the first length bytes of the file and
+	 * returns them sorted. Used to load a file that is still being appended
+	 * to up to a known line boundary.
+	 *
+	 * @param path the collisions file
+	 * @param parallelism number of worker threads
+	 * @param length number of bytes to read; it has to end at a line boundary
+	 *        or be at least the size of the file
+	 * @return sorted array of the records
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static Collision[] loadSorted(Path path, int parallelism, long length) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = Math.min(channel.size(), length);
+			long position = 0;
+			Collision[] records = new Collision[0];
+			while (position < size) {
+				MappedByteBuffer buffer = CSVMappedReader.mapWindow(channel, position);
+				if (buffer.limit() > size - position)
+					buffer.limit((int) (size - position));
+				int end = CSVMappedReader.windowEnd(buffer, position + buffer.limit() == size);
+				int chunkSize = Math.max(MIN_CHUNK_SIZE, end / (parallelism * 4));
+				Collision[] run = pool.invoke(new ChunkTask(buffer, 0, end, chunkSize));
+				records = merge(records, run);
+				position += end;
+			}
+			return records;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * Merges two sorted arrays into one. Records from left come first when
+	 * records compare equal.
+	 *
+	 * @param left records that come first in the file
+	 * @param right records that come later in the file
+	 * @return merged sorted array
+	 */
+	static Collision[] merge(Collision[] left, Collision[] right) {
+		if (left.length == 0)
+			return right;
+		if (right.length == 0)
+			return left;
+		Collision[] merged = new Collision[left.length + right.length];
+		int i = 0, j = 0, k = 0;
+		while (i < left.length && j < right.length) {
+			if (right[j].compareTo(left[i]) < 0)
+				merged[k++] = right[j++];
+			else
+				merged[k++] = left[i++];
+		}
+		while (i < left.length)
+			merged[k++] = left[i++];
+		while (j < right.length)
+			merged[k++] = right[j++];
+		return merged;
+	}
+
+	/*
+	 * Returns the index just after the first newline at or after index from,
+	 * or to if there is none.
+	 */
+	static int nextLineStart(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == '\n')
+				return i + 1;
+		}
+		return to;
+	}
+
+	/**
+	 * ChunkTask parses a range of lines. Large ranges are split in two at a
+	 * newline and the sorted results of both halves are merged.
+	 */
+	static class ChunkTask extends RecursiveTask<Collision[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer buffer;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		ChunkTask(ByteBuffer buffer, int from, int to, int chunkSize) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected Collision[] compute() {
+			if (to - from > chunkSize) {
+				int middle = nextLineStart(buffer, from + (to - from) / 2, to);
+				if (middle < to) {
+					ChunkTask left = new ChunkTask(buffer, from, middle, chunkSize);
+					ChunkTask right = new ChunkTask(buffer, middle, to, chunkSize);
+					left.fork();
+					Collision[] rightRun = right.compute();
+					return merge(left.join(), rightRun);
+				}
+			}
+
+			// Parse and validate every line of the chunk, then sort the run
+			ArrayList<Collision> records = new ArrayList<Collision>();
+			CSVMappedReader.scan(buffer, from, to, new CSVMappedReader.Row(), row -> {
+				Metrics.rowsRead.increment();
+				try {
+					records.add(new Collision(row));
+				} catch (IllegalArgumentException | NullPointerException e) {
+					// skip the invalid record (a missing key is reported as a
+					// NullPointerException)
+					Metrics.rejected(e);
+				}
+			});
+			Metrics.recordsLoaded.add(records.size());
+			Collision[] run = records.toArray(new Collision[records.size()]);
+			Arrays.sort(run);
+			return run;
+		}
+	}
+}
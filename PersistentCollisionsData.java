@@ -0,0 +1,474 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * This class stores collision records in an immutable (persistent) AVL tree
+ * so that records can be added and removed while reports are running.
+ *
+ * Nodes are never changed after they are created. Adding or removing a
+ * record copies the nodes on the path from the root to the changed leaf
+ * (and the few nodes touched by rotations) and shares every other subtree
+ * with the previous version; the new root is then published with a single
+ * compare-and-set. A report reads the root once and works on that version
+ * from start to end, without locks, while writers build newer versions.
+ * Writers do not block each other either: a writer whose compare-and-set
+ * fails repeats its change on the newer root.
+ *
+ * Like CollisionsData, every node keeps the totals of its subtree, so a
+ * report takes O(log n) steps. It produces the same reports.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class PersistentCollisionsData implements CollisionIndex {
+
+	// current version of the tree
+	private final AtomicReference<Node> root = new AtomicReference<Node>();
+	// notified after every change is published
+	private final CopyOnWriteArrayList<RecordListener> listeners = new CopyOnWriteArrayList<RecordListener>();
+
+	/*
+	 * Creates an empty tree.
+	 */
+	public PersistentCollisionsData() {
+	}
+
+	/*
+	 * Creates a tree holding all the given items, built bottom up as a
+	 * perfectly balanced tree. Null items are skipped.
+	 *
+	 * @param items the records to be stored in the tree
+	 */
+	public PersistentCollisionsData(Collision[] items) {
+		Collision[] sorted = CollisionsData.sortedCopy(items);
+		root.set(build(sorted, 0, sorted.length - 1));
+	}
+
+	/*
+	 * Builds a perfectly balanced subtree from the sorted items between
+	 * indexes first and last (inclusive).
+	 */
+	private static Node build(Collision[] items, int first, int last) {
+		if (first > last)
+			return null;
+		int middle = (first + last) >>> 1;
+		return new Node(items[middle], build(items, first, middle - 1), build(items, middle + 1, last));
+	}
+
+	/*
+	 * Adds the given item to the tree. If item is null, the tree does not
+	 * change.
+	 *
+	 * @param item the new element to be added to the tree
+	 */
+	public void add(Collision item) {
+		if (item == null)
+			return;
+		for (RecordListener listener : listeners)
+			listener.recordChanging(item);
+		Node current;
+		int[] rotations = new int[4];
+		do {
+			current = root.get();
+			Arrays.fill(rotations, 0);
+		} while (!root.compareAndSet(current, add(current, item, rotations)));
+		countRotations(rotations);
+		for (RecordListener listener : listeners)
+			listener.recordAdded(item);
+	}
+
+	/*
+	 * Adds a batch of items and publishes them as one new version, so a
+	 * report sees either none or all of them. Null items are skipped.
+	 *
+	 * @param items the records to be added
+	 */
+	public void addAll(Collision[] items) {
+		for (RecordListener listener : listeners) {
+			for (Collision item : items) {
+				if (item != null)
+					listener.recordChanging(item);
+			}
+		}
+		Node current;
+		Node updated;
+		int[] rotations = new int[4];
+		do {
+			current = root.get();
+			Arrays.fill(rotations, 0);
+			updated = current;
+			for (Collision item : items) {
+				if (item != null)
+					updated = add(updated, item, rotations);
+			}
+		} while (!root.compareAndSet(current, updated));
+		countRotations(rotations);
+		for (RecordListener listener : listeners) {
+			for (Collision item : items) {
+				if (item != null)
+					listener.recordAdded(item);
+			}
+		}
+	}
+
+	/*
+	 * Returns a copy of the subtree with the item added. Items that compare
+	 * equal go to the right, as in CollisionsData.
+	 */
+	private static Node add(Node node, Collision item, int[] rotations) {
+		if (node == null)
+			return new Node(item, null, null);
+		if (node.data.compareTo(item) > 0)
+			return balance(node.data, add(node.left, item, rotations), node.right, rotations);
+		return balance(node.data, node.left, add(node.right, item, rotations), rotations);
+	}
+
+	/*
+	 * Removes the item from the tree. If item is null or not in the tree,
+	 * the tree does not change.
+	 *
+	 * @param target the item to be removed from this tree
+	 * @return boolean true, false based on if the item was removed
+	 */
+	public boolean remove(Collision target) {
+		if (target == null)
+			return false;
+		for (RecordListener listener : listeners)
+			listener.recordChanging(target);
+		Node current;
+		Node updated;
+		int[] rotations = new int[4];
+		do {
+			current = root.get();
+			Arrays.fill(rotations, 0);
+			updated = remove(current, target, rotations);
+			// an unchanged subtree is returned as is when the item is missing
+			if (updated == current) {
+				for (RecordListener listener : listeners)
+					listener.recordUnchanged(target);
+				return false;
+			}
+		} while (!root.compareAndSet(current, updated));
+		countRotations(rotations);
+		for (RecordListener listener : listeners)
+			listener.recordRemoved(target);
+		return true;
+	}
+
+	/*
+	 * Registers a listener that is called before and after every add and
+	 * remove.
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(RecordListener listener) {
+		listeners.add(listener);
+	}
+
+	/*
+	 * Returns a copy of the subtree without the target, or the subtree itself
+	 * if the target is not in it.
+	 */
+	private static Node remove(Node node, Collision target, int[] rotations) {
+		if (node == null)
+			return null;
+		int result = target.compareTo(node.data);
+		if (result < 0) {
+			Node left = remove(node.left, target, rotations);
+			return left == node.left ? node : balance(node.data, left, node.right, rotations);
+		}
+		if (result > 0) {
+			Node right = remove(node.right, target, rotations);
+			return right == node.right ? node : balance(node.data, node.left, right, rotations);
+		}
+		if (node.left == null)
+			return node.right;
+		if (node.right == null)
+			return node.left;
+		// Replace the record by its predecessor
+		Node predecessor = node.left;
+		while (predecessor.right != null)
+			predecessor = predecessor.right;
+		return balance(predecessor.data, removeLast(node.left, rotations), node.right, rotations);
+	}
+
+	/*
+	 * Returns a copy of the subtree without its rightmost node.
+	 */
+	private static Node removeLast(Node node, int[] rotations) {
+		if (node.right == null)
+			return node.left;
+		return balance(node.data, node.left, removeLast(node.right, rotations), rotations);
+	}
+
+	/*
+	 * Creates a node from a record and two subtrees whose heights differ by
+	 * at most 2, rotating when they differ by 2. The rotation is counted in
+	 * rotations (left-left, right-right, left-right, right-left); the counts
+	 * go to Metrics only once the version is published, so an attempt that
+	 * loses the race is not counted.
+	 */
+	private static Node balance(Collision data, Node left, Node right, int[] rotations) {
+		int balanceFactor = height(right) - height(left);
+		if (balanceFactor > 1) {
+			if (height(right.left) > height(right.right)) {
+				// right-left case
+				rotations[3]++;
+				Node middle = right.left;
+				return new Node(middle.data, new Node(data, left, middle.left),
+						new Node(right.data, middle.right, right.right));
+			}
+			rotations[1]++;
+			return new Node(right.data, new Node(data, left, right.left), right.right);
+		}
+		if (balanceFactor < -1) {
+			if (height(left.right) > height(left.left)) {
+				// left-right case
+				rotations[2]++;
+				Node middle = left.right;
+				return new Node(middle.data, new Node(left.data, left.left, middle.left),
+						new Node(data, middle.right, right));
+			}
+			rotations[0]++;
+			return new Node(left.data, left.left, new Node(data, left.right, right));
+		}
+		return new Node(data, left, right);
+	}
+
+	/*
+	 * Adds the rotations of a published version to the metrics.
+	 */
+	private static void countRotations(int[] rotations) {
+		Metrics.rotationsLeftLeft.add(rotations[0]);
+		Metrics.rotationsRightRight.add(rotations[1]);
+		Metrics.rotationsLeftRight.add(rotations[2]);
+		Metrics.rotationsRightLeft.add(rotations[3]);
+	}
+
+	/*
+	 * Height of a subtree, -1 for an empty one.
+	 */
+	private static int height(Node node) {
+		return node == null ? -1 : node.height;
+	}
+
+	/*
+	 * Determines the number of elements stored in the current version.
+	 *
+	 * @return number of elements in the tree
+	 */
+	public int size() {
+		Node current = root.get();
+		return current == null ? 0 : current.count;
+	}
+
+	/*
+	 * Determines the height of the current version.
+	 *
+	 * @return height of the root, -1 for an empty tree
+	 */
+	public int height() {
+		return height(root.get());
+	}
+
+	/*
+	 * Returns the records of the current version in sorted order.
+	 *
+	 * @return array with the records of an inorder traversal
+	 */
+	public Collision[] toArray() {
+		Node current = root.get();
+		Collision[] items = new Collision[current == null ? 0 : current.count];
+		inOrderCollect(current, items, 0);
+		return items;
+	}
+
+	/*
+	 * Actual recursive implementation of toArray.
+	 */
+	private static int inOrderCollect(Node tree, Collision[] items, int index) {
+		if (tree != null) {
+			index = inOrderCollect(tree.left, items, index);
+			items[index++] = tree.data;
+			index = inOrderCollect(tree.right, items, index);
+		}
+		return index;
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (root.get() == null)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range, all from the same version of the tree.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		if (dateBegin.compareTo(dateEnd) > 0)
+			return report;
+		long start = System.nanoTime();
+		Node current = root.get();
+		int code = ZipDictionary.code(zip);
+		int visited = addTotalsBefore(current, report, zip, code, dateEnd.packed() + 1, 1)
+				+ addTotalsBefore(current, report, zip, code, dateBegin.packed(), -1);
+		Metrics.report(System.nanoTime() - start, visited);
+		return report;
+	}
+
+	/*
+	 * Adds (sign 1) or subtracts (sign -1) the totals of all records in the
+	 *   subtree that come before the given zip code and packed date.
+	 *
+	 * @return number of nodes visited
+	 */
+	private static int addTotalsBefore(Node node, int[] report, String zip, int code, int date, int sign) {
+		int visited = 0;
+		while (node != null) {
+			visited++;
+			int result = node.data.compareZip(zip, code);
+			if (result == 0)
+				result = node.data.getDate().packed() - date;
+
+			if (result < 0) {
+				// The node and its left subtree are all before the bound
+				Collision data = node.data;
+				report[0] += sign;
+				report[1] += sign * data.getPedestriansKilled();
+				report[2] += sign * data.getCyclistsKilled();
+				report[3] += sign * data.getMotoristsKilled();
+				report[4] += sign * data.getPedestriansInjured();
+				report[5] += sign * data.getCyclistsInjured();
+				report[6] += sign * data.getMotoristsInjured();
+				Node left = node.left;
+				if (left != null) {
+					report[0] += sign * left.count;
+					report[1] += sign * left.pedestriansKilled;
+					report[2] += sign * left.cyclistsKilled;
+					report[3] += sign * left.motoristsKilled;
+					report[4] += sign * left.pedestriansInjured;
+					report[5] += sign * left.cyclistsInjured;
+					report[6] += sign * left.motoristsInjured;
+				}
+				node = node.right;
+			}
+			else {
+				node = node.left;
+			}
+		}
+		return visited;
+	}
+
+	/*
+	 * Passes the records of a zip code and Date range of the current version
+	 *   to an action, in date order, like CollisionsData.forEachInRange.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 * @param action  called for every record of the range.
+	 *
+	 * @return int  number of nodes visited.
+	 */
+	@Override
+	public int forEachInRange(String zip, Date dateBegin, Date dateEnd, Consumer<Collision> action) {
+		int code = ZipDictionary.code(zip);
+		int begin = dateBegin.packed();
+		int end = dateEnd.packed();
+		int visited = 0;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node node = root.get();
+		while (node != null || !stack.isEmpty()) {
+			// Go down to the first record of the subtree that is in the range
+			while (node != null) {
+				visited++;
+				int result = node.data.compareZip(zip, code);
+				if (result < 0 || result == 0 && node.data.getDate().packed() < begin)
+					node = node.right;
+				else {
+					stack.push(node);
+					node = node.left;
+				}
+			}
+			if (stack.isEmpty())
+				break;
+			node = stack.pop();
+			int result = node.data.compareZip(zip, code);
+			if (result > 0 || result == 0 && node.data.getDate().packed() > end)
+				break;
+			action.accept(node.data);
+			node = node.right;
+		}
+		return visited;
+	}
+
+	/*
+	 * Number of records in a subtree.
+	 */
+	private static int count(Node node) {
+		return node == null ? 0 : node.count;
+	}
+
+	/**
+	 * Node is an immutable tree node holding a record, its two subtrees and
+	 * the height and totals of the subtree, all computed when it is created.
+	 */
+	static final class Node {
+		final Collision data;
+		final Node left;
+		final Node right;
+		final int height;
+
+		// totals of the records in the subtree rooted at this node
+		final int count;
+		final int pedestriansKilled;
+		final int cyclistsKilled;
+		final int motoristsKilled;
+		final int pedestriansInjured;
+		final int cyclistsInjured;
+		final int motoristsInjured;
+
+		Node(Collision data, Node left, Node right) {
+			this.data = data;
+			this.left = left;
+			this.right = right;
+			height = Math.max(PersistentCollisionsData.height(left), PersistentCollisionsData.height(right)) + 1;
+			count = 1 + PersistentCollisionsData.count(left) + PersistentCollisionsData.count(right);
+			pedestriansKilled = data.getPedestriansKilled() + (left == null ? 0 : left.pedestriansKilled)
+					+ (right == null ? 0 : right.pedestriansKilled);
+			cyclistsKilled = data.getCyclistsKilled() + (left == null ? 0 : left.cyclistsKilled)
+					+ (right == null ? 0 : right.cyclistsKilled);
+			motoristsKilled = data.getMotoristsKilled() + (left == null ? 0 : left.motoristsKilled)
+					+ (right == null ? 0 : right.motoristsKilled);
+			pedestriansInjured = data.getPedestriansInjured() + (left == null ? 0 : left.pedestriansInjured)
+					+ (right == null ? 0 : right.pedestriansInjured);
+			cyclistsInjured = data.getCyclistsInjured() + (left == null ? 0 : left.cyclistsInjured)
+					+ (right == null ? 0 : right.cyclistsInjured);
+			motoristsInjured = data.getMotoristsInjured() + (left == null ? 0 : left.motoristsInjured)
+					+ (right == null ? 0 : right.motoristsInjured);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * This interface is implemented by the classes that have to know when the
+ * records of a tree change, such as caches and precomputed summaries. A
+ * listener is called on the thread that made the change: recordChanging
+ * before the change can be seen by reports, then recordAdded or
+ * recordRemoved after it is visible, or recordUnchanged if a record to be
+ * removed was not found.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public interface RecordListener {
+
+	/**
+	 * Called before a record is added or removed. Every call is followed by
+	 * one call of recordAdded, recordRemoved or recordUnchanged with the
+	 * same record.
+	 *
+	 * @param record the record to be added or removed
+	 */
+	default void recordChanging(Collision record) {
+	}
+
+	/**
+	 * Called after a record was added.
+	 *
+	 * @param record the record that was added
+	 */
+	void recordAdded(Collision record);
+
+	/**
+	 * Called after a record was removed.
+	 *
+	 * @param record the record that was removed
+	 */
+	void recordRemoved(Collision record);
+
+	/**
+	 * Called after a record to be removed was not found, so the tree did not
+	 * change.
+	 *
+	 * @param record the record that was not removed
+	 */
+	default void recordUnchanged(Collision record) {
+	}
+}
@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class times zip/date-range reports on the different report indexes
+ * (CollisionsData, ColumnarCollisions, ZipDateIndex, RollupCube, FrozenIndex
+ * and OffHeapCollisions) using the same queries for each, and checks that
+ * they all return the same totals.
+ *
+ * The queries follow the mix seen from the prompt: the zip code is taken
+ * from a random record (so busy zip codes are asked for more often) and the
+ * range is a single day (25%), a month (35%), a year (30%) or every year in
+ * the data (10%).
+ *
+ * Usage: java ReportBenchmark file [number of queries] [rounds]
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ReportBenchmark {
+
+	// keeps the JIT from discarding the measured work
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage Error: java ReportBenchmark file [number of queries] [rounds]");
+			System.exit(0);
+		}
+		File file = new File(args[0]);
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		Collision[] records = ParallelLoader.loadSorted(file.toPath(), Runtime.getRuntime().availableProcessors());
+		if (records.length == 0) {
+			System.err.println("ERROR: the file " + file + " holds no valid records");
+			System.exit(1);
+		}
+		String[] zips = new String[count];
+		Date[] begins = new Date[count];
+		Date[] ends = new Date[count];
+		queryMix(records, new Random(42), zips, begins, ends);
+
+		String[] names = {"CollisionsData", "ColumnarCollisions", "ZipDateIndex", "RollupCube", "FrozenIndex",
+				"OffHeapCollisions"};
+		CollisionsData tree = new CollisionsData(records);
+		ReportIndex[] indexes = {tree, new ColumnarCollisions(records), new ZipDateIndex(tree),
+				new RollupCube(records), new FrozenIndex(tree), new OffHeapCollisions(records)};
+
+		// Every index has to agree with the tree
+		for (int i = 0; i < count; i++) {
+			int[] expected = tree.getTotals(zips[i], begins[i], ends[i]);
+			for (int k = 1; k < indexes.length; k++) {
+				if (!Arrays.equals(expected, indexes[k].getTotals(zips[i], begins[i], ends[i])))
+					System.err.println("WARNING: " + names[k] + " differs for " + zips[i] + " " + begins[i]
+							+ " - " + ends[i]);
+			}
+		}
+
+		System.out.println(records.length + " records, " + count + " queries, best of " + rounds + " rounds");
+		for (int k = 0; k < indexes.length; k++) {
+			long best = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++)
+					sink += indexes[k].getTotals(zips[i], begins[i], ends[i])[0];
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(String.format("%-20s %10.1f ns/query %12.0f queries/s", names[k],
+					(double) best / count, count / (best / 1e9)));
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/*
+	 * Fills the query arrays following the mix described above.
+	 */
+	static void queryMix(Collision[] records, Random random, String[] zips, Date[] begins, Date[] ends) {
+		int firstYear = Integer.MAX_VALUE;
+		int lastYear = Integer.MIN_VALUE;
+		for (Collision record : records) {
+			firstYear = Math.min(firstYear, record.getDate().getYear());
+			lastYear = Math.max(lastYear, record.getDate().getYear());
+		}
+		for (int i = 0; i < zips.length; i++) {
+			zips[i] = records[random.nextInt(records.length)].getZip();
+			int year = firstYear + random.nextInt(lastYear - firstYear + 1);
+			int month = 1 + random.nextInt(12);
+			int kind = random.nextInt(100);
+			if (kind < 25) {
+				begins[i] = ends[i] = new Date(year, month, 1 + random.nextInt(28));
+			} else if (kind < 60) {
+				begins[i] = new Date(year, month, 1);
+				ends[i] = new Date(year, month, 31);
+			} else if (kind < 90) {
+				begins[i] = new Date(year, 1, 1);
+				ends[i] = new Date(year, 12, 31);
+			} else {
+				begins[i] = new Date(firstYear, 1, 1);
+				ends[i] = new Date(lastYear, 12, 31);
+			}
+		}
+	}
+}
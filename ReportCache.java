@@ -0,0 +1,282 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the results of recent reports of another index so that a
+ * repeated question (same zip code, start date and end date) does not walk
+ * the tree or build the report text again.
+ *
+ * The cache holds at most capacity results and evicts the least recently
+ * used one when it is full. It listens to the changes of the tree: every
+ * zip code has a version that is increased both before a record of that zip
+ * is added or removed and after the change is visible, and a result is only
+ * used while the version it was computed with is still current. While a
+ * change of a zip code is under way, its reports are neither answered from
+ * nor stored in the cache, so a report never misses a record that is already
+ * visible in the tree. A change therefore invalidates exactly the results of
+ * its zip code, and a result computed while the change was made is never
+ * used afterwards.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ReportCache implements ReportIndex, RecordListener {
+
+	private final ReportIndex index;
+	private final int capacity;
+	// results in least recently used order; guarded by itself
+	private final LinkedHashMap<Key, Entry> entries;
+	// version of every zip code that was changed; guarded by itself
+	private final HashMap<String, Version> versions = new HashMap<String, Version>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Creates a cache in front of an index. If the index can change, the
+	 * cache has to be registered as its listener.
+	 *
+	 * @param index the index that answers the reports that are not cached
+	 * @param capacity most results kept
+	 * @throws IllegalArgumentException if capacity is not positive
+	 */
+	public ReportCache(ReportIndex index, int capacity) throws IllegalArgumentException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity has to be positive");
+		this.index = index;
+		this.capacity = capacity;
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() <= ReportCache.this.capacity)
+					return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range, reusing the text of a cached report.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		Entry entry = lookup(zip, dateBegin, dateEnd);
+		// The text is built from the cached totals on first use (two threads
+		// may both build it). Without records the index decides the text, as
+		// an empty index produces an empty report.
+		String report = entry.report;
+		if (report == null) {
+			report = entry.totals[0] == 0 ? index.getReport(zip, dateBegin, dateEnd)
+					: CollisionsData.formatReport(entry.totals, zip, dateBegin, dateEnd);
+			entry.report = report;
+		}
+		return report;
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range, using a cached result when there is one.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		return lookup(zip, dateBegin, dateEnd).totals.clone();
+	}
+
+	/*
+	 * Returns the current cache entry of a report, computing it on a miss.
+	 */
+	private Entry lookup(String zip, Date dateBegin, Date dateEnd) {
+		Key key = new Key(zip, dateBegin.packed(), dateEnd.packed());
+		long version;
+		synchronized (versions) {
+			Version current = versions.get(zip);
+			if (current != null && current.changing > 0) {
+				// the tree may or may not show the change yet, so the
+				// result is computed but neither looked up nor kept
+				misses.increment();
+				return new Entry(current.number, index.getTotals(zip, dateBegin, dateEnd));
+			}
+			version = current == null ? 0 : current.number;
+		}
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.version == version) {
+				hits.increment();
+				return entry;
+			}
+		}
+		misses.increment();
+
+		// Compute outside the lock; the version was read before the tree and
+		// is increased before a change is made visible, so a change made
+		// meanwhile makes this entry stale
+		Entry entry = new Entry(version, index.getTotals(zip, dateBegin, dateEnd));
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+
+	@Override
+	public void recordChanging(Collision record) {
+		invalidate(record.getZip(), 1);
+	}
+
+	@Override
+	public void recordAdded(Collision record) {
+		invalidate(record.getZip(), -1);
+	}
+
+	@Override
+	public void recordRemoved(Collision record) {
+		invalidate(record.getZip(), -1);
+	}
+
+	@Override
+	public void recordUnchanged(Collision record) {
+		invalidate(record.getZip(), -1);
+	}
+
+	/*
+	 * Makes every cached result of a zip code stale, and counts a change of
+	 * the zip code as started (1) or finished (-1).
+	 */
+	private void invalidate(String zip, int changing) {
+		synchronized (versions) {
+			Version version = versions.get(zip);
+			if (version == null) {
+				version = new Version();
+				versions.put(zip, version);
+			}
+			version.number++;
+			// a listener registered during a change only sees its end
+			version.changing = Math.max(0, version.changing + changing);
+		}
+		if (changing > 0)
+			invalidations.increment();
+	}
+
+	/**
+	 * Returns the number of reports answered from the cache
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of reports that had to be computed
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of results evicted because the cache was full
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of changes that invalidated the results of a zip
+	 * @return number of invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	/**
+	 * Returns the number of results in the cache
+	 * @return number of results
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/*
+	 * Returns a one line summary of the statistics.
+	 */
+	@Override
+	public String toString() {
+		long hitCount = getHits();
+		long total = hitCount + getMisses();
+		return String.format("cache: %d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations",
+				size(), hitCount, getMisses(), total == 0 ? 0.0 : 100.0 * hitCount / total, getEvictions(),
+				getInvalidations());
+	}
+
+	/**
+	 * Key identifies a report by zip code and packed dates.
+	 */
+	static final class Key {
+		final String zip;
+		final int begin;
+		final int end;
+
+		Key(String zip, int begin, int end) {
+			this.zip = zip;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return begin == key.begin && end == key.end && zip.equals(key.zip);
+		}
+
+		@Override
+		public int hashCode() {
+			return (zip.hashCode() * 31 + begin) * 31 + end;
+		}
+	}
+
+	/**
+	 * Version holds the version of a zip code and the number of its changes
+	 * that are under way; guarded by the versions map.
+	 */
+	static final class Version {
+		long number;
+		int changing;
+	}
+
+	/**
+	 * Entry holds the totals of a report, the version of its zip code they
+	 * were computed with, and the report text once it was asked for.
+	 */
+	static final class Entry {
+		final long version;
+		final int[] totals;
+		volatile String report;
+
+		Entry(long version, int[] totals) {
+			this.version = version;
+			this.totals = totals;
+		}
+	}
+}
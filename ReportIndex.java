@@ -0,0 +1,33 @@
+/**
+ * This interface is implemented by the classes that store collision records
+ * and can report the number of collisions, fatalities and injuries for a zip
+ * code and a date range.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public interface ReportIndex {
+
+	/**
+	 * Adds up the collisions, fatalities and injuries for a zip code and date
+	 * range (both dates included).
+	 *
+	 * @param zip the zip code
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 * @return array holding the number of collisions, pedestrians, cyclists and
+	 *         motorists killed, and pedestrians, cyclists and motorists injured
+	 */
+	int[] getTotals(String zip, Date dateBegin, Date dateEnd);
+
+	/**
+	 * Produces the text report for a zip code and date range, in the format
+	 * printed by CollisionInfo. An empty index produces an empty string.
+	 *
+	 * @param zip the zip code
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 * @return the report
+	 */
+	String getReport(String zip, Date dateBegin, Date dateEnd);
+}
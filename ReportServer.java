@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves reports over HTTP using the server built into the JDK,
+ * so dashboards can ask questions of one running program instead of
+ * starting a new one for every question.
+ *
+ * Endpoints (GET only, answers are JSON):
+ *
+ *   /report?zip=10001&start=01/01/2015&end=12/31/2016
+ *           totals for a zip code and date range
+ *   /stats  number of requests served and latency percentiles of /report
+ *   /metrics every value of Metrics.snapshot
+ *
+ * Every request runs on its own virtual thread when the Java runtime has
+ * them (Java 21 and later); older runtimes fall back to a cached pool of
+ * platform threads. The index is only read, so requests need no locking.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ReportServer {
+
+	private final ReportIndex index;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Metrics.Histogram latencies = new Metrics.Histogram();
+
+	/**
+	 * Creates a server for the given index. The server does not accept
+	 * requests until it is started.
+	 *
+	 * @param index the index that answers the reports
+	 * @param port the port to listen on (0 picks a free port)
+	 * @throws IOException if the port cannot be opened
+	 */
+	public ReportServer(ReportIndex index, int port) throws IOException {
+		this.index = index;
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		executor = newPerRequestExecutor();
+		server.setExecutor(executor);
+		server.createContext("/report", this::handleReport);
+		server.createContext("/stats", this::handleStats);
+		server.createContext("/metrics", this::handleMetrics);
+	}
+
+	/**
+	 * Starts accepting requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits up to a second for the running ones
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/*
+	 * Returns an executor that starts a virtual thread per task if the
+	 * runtime supports it, otherwise a cached pool of platform threads.
+	 */
+	static ExecutorService newPerRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/*
+	 * Answers /report with the totals of one zip code and date range.
+	 */
+	private void handleReport(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				send(exchange, 405, error("only GET is supported"));
+				return;
+			}
+			HashMap<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String zip = query.get("zip");
+			if (zip == null || zip.length() != 5 || !Collision.containsDigit(zip)) {
+				send(exchange, 400, error("invalid zip code"));
+				return;
+			}
+			Date dateBegin;
+			Date dateEnd;
+			try {
+				dateBegin = new Date(query.containsKey("start") ? query.get("start") : "");
+				dateEnd = new Date(query.containsKey("end") ? query.get("end") : "");
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, error("invalid date format, expected MM/DD/YYYY"));
+				return;
+			}
+			send(exchange, 200, toJson(zip, dateBegin, dateEnd, index.getTotals(zip, dateBegin, dateEnd)));
+		} finally {
+			latencies.record(System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Answers /stats with the request count and latency percentiles.
+	 */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"requests\":").append(latencies.count());
+		double[] percentiles = {50, 90, 99, 99.9};
+		String[] names = {"p50", "p90", "p99", "p999"};
+		for (int i = 0; i < percentiles.length; i++)
+			sb.append(",\"").append(names[i]).append("_us\":").append(latencies.percentile(percentiles[i]) / 1000);
+		sb.append(",\"max_us\":").append(latencies.max() / 1000).append('}');
+		send(exchange, 200, sb.toString());
+	}
+
+	/*
+	 * Answers /metrics with a snapshot of all metrics.
+	 */
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+			if (sb.length() > 1)
+				sb.append(',');
+			sb.append('"').append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""))
+					.append("\":").append(entry.getValue());
+		}
+		send(exchange, 200, sb.append('}').toString());
+	}
+
+	/*
+	 * Formats the totals of a report as a JSON object.
+	 */
+	static String toJson(String zip, Date dateBegin, Date dateEnd, int[] totals) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"zip\":\"").append(zip).append("\",\"start\":\"").append(dateBegin).append("\",\"end\":\"")
+				.append(dateEnd).append("\",\"collisions\":").append(totals[0])
+				.append(",\"pedestrians_killed\":").append(totals[1])
+				.append(",\"cyclists_killed\":").append(totals[2])
+				.append(",\"motorists_killed\":").append(totals[3])
+				.append(",\"pedestrians_injured\":").append(totals[4])
+				.append(",\"cyclists_injured\":").append(totals[5])
+				.append(",\"motorists_injured\":").append(totals[6]).append('}');
+		return sb.toString();
+	}
+
+	/*
+	 * Returns a JSON error object (the messages need no escaping).
+	 */
+	private static String error(String message) {
+		return "{\"error\":\"" + message + "\"}";
+	}
+
+	/*
+	 * Splits a raw query string into decoded name/value pairs.
+	 */
+	static HashMap<String, String> parseQuery(String raw) throws UnsupportedEncodingException {
+		HashMap<String, String> query = new HashMap<String, String>();
+		if (raw == null)
+			return query;
+		for (String pair : raw.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0)
+				query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+		return query;
+	}
+
+	/*
+	 * Sends a JSON body with the given status and closes the exchange.
+	 */
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
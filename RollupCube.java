@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * This class answers reports from totals precomputed per zip code, month
+ * and day, so a long range (a whole year of a zip code) is added up from a
+ * few buckets instead of from its records.
+ *
+ * Every zip code has one bucket per month and one per day of the years
+ * between its first and last record, each holding the seven counters of
+ * getTotals. A range is answered from the day buckets of its first and last
+ * month when those are not whole, and from the month buckets in between:
+ * at most 60 day buckets and one month bucket per month of the range. The
+ * records themselves are never read, as a day is the finest resolution of
+ * a date.
+ *
+ * The cube is built from the records when they are loaded and is kept in
+ * step with a CollisionsData tree by registering it as a listener of the
+ * tree. Like the tree, it must not be read while it is changed.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class RollupCube implements ReportIndex, RecordListener {
+
+	// buckets of every zip code
+	private final HashMap<String, ZipRollup> zips = new HashMap<String, ZipRollup>();
+	// number of records in the cube
+	private int size;
+	// the tree the cube is kept in step with, if it was built from one
+	private final CollisionsData tree;
+
+	/**
+	 * Builds the cube from a batch of records. Null records are skipped.
+	 *
+	 * @param records the collision records
+	 */
+	public RollupCube(Collision[] records) {
+		for (Collision record : records) {
+			if (record != null)
+				recordAdded(record);
+		}
+		tree = null;
+	}
+
+	/**
+	 * Builds the cube from the records of a tree and registers it as a
+	 * listener of the tree, so that it follows every add and remove.
+	 *
+	 * @param tree the tree holding the records
+	 */
+	public RollupCube(CollisionsData tree) {
+		for (Collision record : tree.toArray())
+			recordAdded(record);
+		this.tree = tree;
+		tree.addListener(this);
+	}
+
+	/**
+	 * Returns the tree the cube was built from, or null if it was built
+	 * from a batch of records
+	 * @return the tree
+	 */
+	public CollisionsData getTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns the number of records in the cube
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void recordAdded(Collision record) {
+		ZipRollup rollup = zips.get(record.getZip());
+		if (rollup == null) {
+			rollup = new ZipRollup(record.getDate().getYear());
+			zips.put(record.getZip(), rollup);
+		}
+		rollup.add(record, 1);
+		size++;
+	}
+
+	@Override
+	public void recordRemoved(Collision record) {
+		ZipRollup rollup = zips.get(record.getZip());
+		if (rollup == null)
+			return;
+		rollup.add(record, -1);
+		size--;
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range from the month and day buckets of the zip code.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		ZipRollup rollup = zips.get(zip);
+		if (rollup != null && dateBegin.compareTo(dateEnd) <= 0)
+			rollup.addTotals(report, dateBegin, dateEnd);
+		return report;
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a group of zip
+	 *   codes and Date range, per zip code and combined.
+	 *
+	 * @param zips  the zip codes of the report.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return GroupReport  totals per zip code and combined.
+	 */
+	public GroupReport getTotals(ZipSelection zips, Date dateBegin, Date dateEnd) {
+		GroupReport report = new GroupReport(zips, dateBegin, dateEnd);
+		if (dateBegin.compareTo(dateEnd) > 0)
+			return report;
+		ArrayList<String> selected = new ArrayList<String>();
+		for (String zip : this.zips.keySet()) {
+			if (zips.contains(zip))
+				selected.add(zip);
+		}
+		Collections.sort(selected);
+
+		int[] totals = new int[7];
+		for (String zip : selected) {
+			Arrays.fill(totals, 0);
+			this.zips.get(zip).addTotals(totals, dateBegin, dateEnd);
+			if (totals[0] > 0)
+				report.add(zip, totals);
+		}
+		return report;
+	}
+
+	/**
+	 * ZipRollup holds the month and day buckets of one zip code. Bucket i of
+	 * an array holds its seven counters at 7 * i to 7 * i + 6.
+	 */
+	static class ZipRollup {
+		private static final int DAYS = 31;
+		// first year of the buckets and number of years
+		private int firstYear;
+		private int years;
+		// month (year - firstYear) * 12 + month - 1
+		private int[] months;
+		// day of month m is month m * 31 + day - 1
+		private int[] days;
+
+		ZipRollup(int year) {
+			firstYear = year;
+			years = 1;
+			months = new int[12 * 7];
+			days = new int[12 * DAYS * 7];
+		}
+
+		/*
+		 * Adds (sign 1) or subtracts (sign -1) a record to its buckets,
+		 * adding years to the buckets first if it is outside of them.
+		 */
+		void add(Collision record, int sign) {
+			Date date = record.getDate();
+			int year = date.getYear();
+			if (year < firstYear)
+				grow(year, firstYear + years - 1);
+			else if (year >= firstYear + years)
+				grow(firstYear, year);
+			int month = (year - firstYear) * 12 + date.getMonth() - 1;
+			addRecord(months, month * 7, record, sign);
+			addRecord(days, (month * DAYS + date.getDay() - 1) * 7, record, sign);
+		}
+
+		private static void addRecord(int[] buckets, int at, Collision record, int sign) {
+			buckets[at] += sign;
+			buckets[at + 1] += sign * record.getPedestriansKilled();
+			buckets[at + 2] += sign * record.getCyclistsKilled();
+			buckets[at + 3] += sign * record.getMotoristsKilled();
+			buckets[at + 4] += sign * record.getPedestriansInjured();
+			buckets[at + 5] += sign * record.getCyclistsInjured();
+			buckets[at + 6] += sign * record.getMotoristsInjured();
+		}
+
+		/*
+		 * Makes the buckets cover the years from first to last.
+		 */
+		private void grow(int first, int last) {
+			int shift = (firstYear - first) * 12;
+			int[] newMonths = new int[(last - first + 1) * 12 * 7];
+			int[] newDays = new int[(last - first + 1) * 12 * DAYS * 7];
+			System.arraycopy(months, 0, newMonths, shift * 7, months.length);
+			System.arraycopy(days, 0, newDays, shift * DAYS * 7, days.length);
+			months = newMonths;
+			days = newDays;
+			firstYear = first;
+			years = last - first + 1;
+		}
+
+		/*
+		 * Adds the totals of the range to the report: the whole months from
+		 * the month buckets and the days of partial months from the day
+		 * buckets. The range is first cut to the years of the buckets.
+		 */
+		void addTotals(int[] report, Date dateBegin, Date dateEnd) {
+			int lastYear = firstYear + years - 1;
+			if (dateEnd.getYear() < firstYear || dateBegin.getYear() > lastYear)
+				return;
+			int beginMonth;
+			int beginDay;
+			if (dateBegin.getYear() < firstYear) {
+				beginMonth = 0;
+				beginDay = 1;
+			} else {
+				beginMonth = (dateBegin.getYear() - firstYear) * 12 + dateBegin.getMonth() - 1;
+				beginDay = dateBegin.getDay();
+			}
+			int endMonth;
+			int endDay;
+			if (dateEnd.getYear() > lastYear) {
+				endMonth = years * 12 - 1;
+				endDay = DAYS;
+			} else {
+				endMonth = (dateEnd.getYear() - firstYear) * 12 + dateEnd.getMonth() - 1;
+				endDay = dateEnd.getDay();
+			}
+
+			if (beginMonth == endMonth && (beginDay > 1 || endDay < DAYS)) {
+				addDays(report, beginMonth, beginDay, endDay);
+				return;
+			}
+			if (beginDay > 1) {
+				addDays(report, beginMonth, beginDay, DAYS);
+				beginMonth++;
+			}
+			if (endDay < DAYS) {
+				addDays(report, endMonth, 1, endDay);
+				endMonth--;
+			}
+			for (int at = beginMonth * 7; at <= endMonth * 7; at += 7) {
+				for (int k = 0; k < 7; k++)
+					report[k] += months[at + k];
+			}
+		}
+
+		private void addDays(int[] report, int month, int firstDay, int lastDay) {
+			int from = (month * DAYS + firstDay - 1) * 7;
+			int to = (month * DAYS + lastDay - 1) * 7;
+			for (int at = from; at <= to; at += 7) {
+				for (int k = 0; k < 7; k++)
+					report[k] += days[at + k];
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * This class follows a collisions file that is being appended to and adds
+ * the new records to a PersistentCollisionsData tree while reports keep
+ * running on it.
+ *
+ * The file is checked every pollMillis milliseconds. Only the bytes after
+ * the last offset that was read are read, and only up to the last complete
+ * line, so a row that is still being written is picked up by the next
+ * check. Lines end at the same terminators as in CSVMappedReader, and every
+ * line goes through CSVMappedReader and the Collision constructor like the
+ * lines of the initial load, so a row gives the same record whether it was
+ * loaded at the start or followed. The valid records are published to the
+ * tree in batches of BATCH_SIZE.
+ *
+ * The freshness lag is the time from the last change of the file to the
+ * moment its records can be seen by reports.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class TailFollower implements Runnable {
+
+	// most records published to the tree at once
+	static final int BATCH_SIZE = 1000;
+	// most bytes read in one step
+	static final int READ_SIZE = 1 << 24;
+
+	private final Path path;
+	private final PersistentCollisionsData tree;
+	private final long pollMillis;
+	private volatile boolean running;
+	private Thread thread;
+
+	// position after the last complete line that was read
+	private volatile long offset;
+	// true while the rest of a line longer than READ_SIZE is skipped
+	private boolean skippingLine;
+	// progress, written by the following thread only
+	private volatile long recordsAdded;
+	private volatile long rowsRejected;
+	private volatile long lastLagMillis;
+	private volatile long maxLagMillis;
+
+	/**
+	 * Creates a follower that starts reading at the given offset.
+	 *
+	 * @param path the collisions file
+	 * @param tree the tree the new records are added to
+	 * @param offset position of the first byte that was not loaded yet; it
+	 *        has to be the start of a line
+	 * @param pollMillis time between two checks of the file
+	 */
+	public TailFollower(Path path, PersistentCollisionsData tree, long offset, long pollMillis) {
+		this.path = path;
+		this.tree = tree;
+		this.offset = offset;
+		this.pollMillis = pollMillis;
+	}
+
+	/**
+	 * Returns the length of the file up to and including its last line
+	 * terminator (see CSVMappedReader), that is the part of the file that
+	 * holds complete lines.
+	 *
+	 * @param path the file
+	 * @return the number of bytes before the end of the last complete line
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long completeLength(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			long end = channel.size();
+			while (end > 0) {
+				long start = Math.max(0, end - buffer.capacity());
+				int length = (int) (end - start);
+				buffer.clear().limit(length);
+				channel.read(buffer, start);
+				int complete = CSVMappedReader.lastLineEnd(buffer, length);
+				if (complete > 0)
+					return start + complete;
+				if (start == 0)
+					break;
+				// the blocks overlap by two bytes, so that a terminator of
+				// several bytes cut by the start of this block is found
+				end = start + 2;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Starts following the file on a daemon thread
+	 */
+	public void start() {
+		running = true;
+		thread = new Thread(this, "tail-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops following the file and waits for the current step to finish
+	 */
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				// catch up first, then report the progress and wait for more
+				boolean read = false;
+				while (running && poll())
+					read = true;
+				if (read)
+					System.err.println(this);
+				Thread.sleep(pollMillis);
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				System.err.println("ERROR: the file " + path + " cannot be read: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads the complete lines appended since the last step (at most
+	 * READ_SIZE bytes) and adds their records to the tree.
+	 *
+	 * @return true if any bytes were read, false if there was nothing new
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean poll() throws IOException {
+		long modified = Files.getLastModifiedTime(path).toMillis();
+		ByteBuffer buffer;
+		int read;
+		int complete = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < offset) {
+				// The file was truncated or replaced; its old records stay
+				System.err.println("WARNING: " + path + " became shorter; following it from its end");
+				offset = completeLength(path);
+				return false;
+			}
+			if (size == offset)
+				return false;
+
+			buffer = ByteBuffer.allocate((int) Math.min(READ_SIZE, size - offset));
+			while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0)
+				;
+			read = buffer.position();
+			complete = CSVMappedReader.lastLineEnd(buffer, read);
+		}
+		// Drop the rest of a line that was too long, up to its end
+		if (skippingLine) {
+			int lineEnd = CSVMappedReader.nextLineEnd(buffer, 0, read);
+			skippingLine = lineEnd < 0;
+			offset += skippingLine ? read : lineEnd;
+			return true;
+		}
+		if (complete == 0) {
+			// Wait for the rest of a line that is still being written, unless
+			// it is longer than READ_SIZE: then it could never be read, so it
+			// is rejected and skipped
+			if (read < READ_SIZE)
+				return false;
+			Metrics.rowsRead.increment();
+			rowsRejected++;
+			Metrics.rejected(new IllegalArgumentException("Line longer than " + READ_SIZE + " bytes"));
+			skippingLine = true;
+			offset += read;
+			return true;
+		}
+
+		ArrayList<Collision> batch = new ArrayList<Collision>(BATCH_SIZE);
+		CSVMappedReader.scan(buffer, 0, complete, new CSVMappedReader.Row(), row -> {
+			Metrics.rowsRead.increment();
+			try {
+				batch.add(new Collision(row));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				// skip the invalid record (a missing key is reported as a
+				// NullPointerException, which must not stop the follower)
+				rowsRejected++;
+				Metrics.rejected(e);
+				return;
+			}
+			if (batch.size() == BATCH_SIZE)
+				publish(batch);
+		});
+		publish(batch);
+		offset += complete;
+
+		lastLagMillis = Math.max(0, System.currentTimeMillis() - modified);
+		maxLagMillis = Math.max(maxLagMillis, lastLagMillis);
+		return true;
+	}
+
+	/*
+	 * Adds a batch of records to the tree as one version and clears it.
+	 */
+	private void publish(ArrayList<Collision> batch) {
+		if (batch.isEmpty())
+			return;
+		tree.addAll(batch.toArray(new Collision[batch.size()]));
+		recordsAdded += batch.size();
+		Metrics.recordsLoaded.add(batch.size());
+		batch.clear();
+	}
+
+	/**
+	 * Returns the position after the last line that was read
+	 * @return the offset in bytes
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the number of records added since the follower was created
+	 * @return number of records
+	 */
+	public long getRecordsAdded() {
+		return recordsAdded;
+	}
+
+	/**
+	 * Returns the number of appended rows that were not valid records
+	 * @return number of rows
+	 */
+	public long getRowsRejected() {
+		return rowsRejected;
+	}
+
+	/**
+	 * Returns the freshness lag of the last step that read new lines
+	 * @return lag in milliseconds
+	 */
+	public long getLastLagMillis() {
+		return lastLagMillis;
+	}
+
+	/**
+	 * Returns the largest freshness lag seen so far
+	 * @return lag in milliseconds
+	 */
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+
+	/*
+	 * Returns a one line summary of the progress.
+	 */
+	@Override
+	public String toString() {
+		return String.format("following %s: %d records added, %d rows rejected, offset %d, lag %d ms (max %d ms)",
+				path.getFileName(), recordsAdded, rowsRejected, offset, lastLagMillis, maxLagMillis);
+	}
+}
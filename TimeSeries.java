@@ -0,0 +1,215 @@
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * This class holds the totals of one zip code per day, week or month of a
+ * date range, for charting.
+ *
+ * The buckets are filled from a single in-order traversal of the records of
+ * the range (CollisionsData.forEachInRange) into one int array holding the
+ * seven counters of every bucket, instead of one report per bucket. Every
+ * bucket of the range is present, with zeros when it has no collisions.
+ * Weeks start on Monday, so the first week may start before the range.
+ *
+ * The series is written as csv (one line per bucket) or as a JSON object.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class TimeSeries {
+
+	/**
+	 * Interval is the length of a bucket.
+	 */
+	public enum Interval {
+		DAY, WEEK, MONTH;
+
+		/**
+		 * Returns the interval with the given name, in any case
+		 *
+		 * @param name day, week or month
+		 * @return the interval
+		 * @throws IllegalArgumentException if there is no interval of that name
+		 */
+		public static Interval parse(String name) throws IllegalArgumentException {
+			for (Interval interval : values()) {
+				if (interval.name().equalsIgnoreCase(name.trim()))
+					return interval;
+			}
+			throw new IllegalArgumentException("unknown interval " + name + ", expected day, week or month");
+		}
+	}
+
+	private final String zip;
+	private final Date dateBegin;
+	private final Date dateEnd;
+	private final Interval interval;
+	// number of the first bucket, counted in days, weeks or months
+	private final int first;
+	// counters of bucket i at 7 * i to 7 * i + 6
+	private final int[] totals;
+
+	/**
+	 * Creates a series with empty buckets covering the date range.
+	 *
+	 * @param zip the zip code
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 * @param interval length of a bucket
+	 */
+	public TimeSeries(String zip, Date dateBegin, Date dateEnd, Interval interval) {
+		this.zip = zip;
+		this.dateBegin = dateBegin;
+		this.dateEnd = dateEnd;
+		this.interval = interval;
+		first = bucket(dateBegin);
+		int buckets = dateBegin.compareTo(dateEnd) > 0 ? 0 : bucket(dateEnd) - first + 1;
+		totals = new int[7 * buckets];
+	}
+
+	/**
+	 * Computes the series of a zip code from the records of a tree.
+	 *
+	 * @param tree the tree holding the records
+	 * @param zip the zip code
+	 * @param dateBegin beginning of the date range
+	 * @param dateEnd end of the date range
+	 * @param interval length of a bucket
+	 * @return the series
+	 */
+	public static TimeSeries of(CollisionsData tree, String zip, Date dateBegin, Date dateEnd, Interval interval) {
+		TimeSeries series = new TimeSeries(zip, dateBegin, dateEnd, interval);
+		if (series.size() > 0)
+			tree.forEachInRange(zip, dateBegin, dateEnd, series::add);
+		return series;
+	}
+
+	/**
+	 * Adds a record to the bucket of its date. Records outside of the date
+	 * range are ignored.
+	 *
+	 * @param record the record
+	 */
+	public void add(Collision record) {
+		Date date = record.getDate();
+		if (date.compareTo(dateBegin) < 0 || date.compareTo(dateEnd) > 0)
+			return;
+		// A day past the end of a month can fall after the bucket of the
+		// range end (or before the bucket of a range starting with one)
+		int at = Math.min(Math.max(bucket(date) - first, 0), size() - 1) * 7;
+		totals[at] += 1;
+		totals[at + 1] += record.getPedestriansKilled();
+		totals[at + 2] += record.getCyclistsKilled();
+		totals[at + 3] += record.getMotoristsKilled();
+		totals[at + 4] += record.getPedestriansInjured();
+		totals[at + 5] += record.getCyclistsInjured();
+		totals[at + 6] += record.getMotoristsInjured();
+	}
+
+	/**
+	 * Returns the number of buckets
+	 * @return number of buckets
+	 */
+	public int size() {
+		return totals.length / 7;
+	}
+
+	/**
+	 * Returns the totals of a bucket
+	 *
+	 * @param bucket the bucket (0 is the first)
+	 * @return totals in the order used by CollisionsData.getTotals
+	 */
+	public int[] getTotals(int bucket) {
+		int[] report = new int[7];
+		System.arraycopy(totals, bucket * 7, report, 0, 7);
+		return report;
+	}
+
+	/**
+	 * Returns the first day of a bucket as MM/DD/YYYY
+	 *
+	 * @param bucket the bucket (0 is the first)
+	 * @return the first day
+	 */
+	public String getStart(int bucket) {
+		int number = first + bucket;
+		LocalDate start;
+		if (interval == Interval.DAY)
+			start = LocalDate.ofEpochDay(number);
+		else if (interval == Interval.WEEK)
+			start = LocalDate.ofEpochDay(number * 7L - 3);
+		else
+			start = LocalDate.of(number / 12, number % 12 + 1, 1);
+		return String.format("%02d/%02d/%04d", start.getMonthValue(), start.getDayOfMonth(), start.getYear());
+	}
+
+	/*
+	 * Returns the number of the bucket of a date: days since 01/01/1970,
+	 *   Monday based weeks since then, or months since year 0.
+	 */
+	private int bucket(Date date) {
+		if (interval == Interval.MONTH)
+			return date.getYear() * 12 + date.getMonth() - 1;
+		int day = epochDay(date.getYear(), date.getMonth(), date.getDay());
+		// 01/01/1970 was a Thursday, 3 days after a Monday
+		return interval == Interval.DAY ? day : Math.floorDiv(day + 3, 7);
+	}
+
+	/*
+	 * Returns the number of days from 01/01/1970 to a date. Days past the end
+	 *   of a month (which Date accepts) count as days of the next month.
+	 */
+	static int epochDay(int year, int month, int day) {
+		// Count years from March so that February is the last month
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * ((month + 9) % 12) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Writes the series as csv: a header line, then one line per bucket with
+	 * its first day and its counters.
+	 *
+	 * @param out where the series is written
+	 */
+	public void writeCsv(PrintWriter out) {
+		out.print("start");
+		for (Counter counter : Counter.values())
+			out.print("," + counter.name().toLowerCase(Locale.ROOT));
+		out.println();
+		for (int bucket = 0; bucket < size(); bucket++) {
+			out.print(getStart(bucket));
+			for (int k = 0; k < 7; k++)
+				out.print("," + totals[bucket * 7 + k]);
+			out.println();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the series as a JSON object with the zip code, the range, the
+	 * interval and an array with one object per bucket.
+	 *
+	 * @param out where the series is written
+	 */
+	public void writeJson(PrintWriter out) {
+		out.print("{\"zip\":\"" + zip + "\",\"start\":\"" + dateBegin + "\",\"end\":\"" + dateEnd
+				+ "\",\"interval\":\"" + interval.name().toLowerCase(Locale.ROOT) + "\",\"buckets\":[");
+		Counter[] counters = Counter.values();
+		for (int bucket = 0; bucket < size(); bucket++) {
+			StringBuilder sb = new StringBuilder(bucket == 0 ? "\n{" : ",\n{");
+			sb.append("\"start\":\"").append(getStart(bucket)).append('"');
+			for (int k = 0; k < 7; k++)
+				sb.append(",\"").append(counters[k].name().toLowerCase(Locale.ROOT)).append("\":")
+						.append(totals[bucket * 7 + k]);
+			out.print(sb.append('}'));
+		}
+		out.println("]}");
+		out.flush();
+	}
+}
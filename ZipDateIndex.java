@@ -0,0 +1,151 @@
+import java.util.HashMap;
+
+/**
+ * This class is a read-only index for the most common question asked of the
+ * collision data: the totals for one zip code and a date range.
+ *
+ * For every zip code it keeps the sorted packed dates of its records and,
+ * for each of the six killed/injured counters, the running sum over those
+ * records. The totals of a date range are then found with two binary
+ * searches and one subtraction per counter, without walking the tree.
+ *
+ * It is built from the records of a CollisionsData tree (or any batch of
+ * records) and produces the same reports.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ZipDateIndex implements ReportIndex {
+
+	// index of every zip code
+	private final HashMap<String, ZipEntry> zips = new HashMap<String, ZipEntry>();
+	// number of records in the index
+	private final int size;
+
+	/**
+	 * Builds the index from the records of a tree.
+	 *
+	 * @param tree the tree holding the records
+	 */
+	public ZipDateIndex(CollisionsData tree) {
+		this(tree.toArray());
+	}
+
+	/**
+	 * Builds the index from a batch of records. The records are sorted first
+	 * unless they already are in order. Null records are skipped.
+	 *
+	 * @param records the collision records
+	 */
+	public ZipDateIndex(Collision[] records) {
+		Collision[] sorted = CollisionsData.sortedCopy(records);
+		size = sorted.length;
+
+		// Every zip code is a run of consecutive records
+		int first = 0;
+		for (int i = 1; i <= sorted.length; i++) {
+			if (i == sorted.length || !sorted[i].getZip().equals(sorted[first].getZip())) {
+				zips.put(sorted[first].getZip(), new ZipEntry(sorted, first, i));
+				first = i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of records in the index
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Reports the number of fatalities and injuries for a given zip code
+	 *   and Date range.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return String  Information about the number of fatalities and injuries.
+	 */
+	@Override
+	public String getReport(String zip, Date dateBegin, Date dateEnd) {
+		if (size == 0)
+			return "";
+		return CollisionsData.formatReport(getTotals(zip, dateBegin, dateEnd), zip, dateBegin, dateEnd);
+	}
+
+	/*
+	 * Adds up the collisions, fatalities and injuries for a given zip code
+	 *   and Date range from the running sums of the zip code.
+	 *
+	 * @param zip  containing the zip code.
+	 * @param dateBegin  Beginning of the data range.
+	 * @param dateEnd  End of the date range.
+	 *
+	 * @return int[]  totals in the order used by CollisionsData.getTotals.
+	 */
+	@Override
+	public int[] getTotals(String zip, Date dateBegin, Date dateEnd) {
+		int[] report = new int[7];
+		ZipEntry entry = zips.get(zip);
+		if (entry == null || dateBegin.compareTo(dateEnd) > 0)
+			return report;
+
+		int first = entry.firstOnOrAfter(dateBegin.packed());
+		int last = entry.firstOnOrAfter(dateEnd.packed() + 1);
+		report[0] = last - first;
+		for (int k = 0; k < 6; k++)
+			report[k + 1] = entry.sums[k][last] - entry.sums[k][first];
+		return report;
+	}
+
+	/**
+	 * ZipEntry holds the dates and running sums of the records of one zip.
+	 */
+	static class ZipEntry {
+		// packed dates of the records, in order
+		final int[] dates;
+		// sums[k][i] is the total of counter k over the first i records, with
+		// the counters in the order used by getTotals (without the count)
+		final int[][] sums;
+
+		/*
+		 * Builds the entry from the sorted records between first and last
+		 * (exclusive), which all have the same zip code.
+		 */
+		ZipEntry(Collision[] sorted, int first, int last) {
+			int n = last - first;
+			dates = new int[n];
+			sums = new int[6][n + 1];
+			for (int i = 0; i < n; i++) {
+				Collision record = sorted[first + i];
+				dates[i] = record.getDate().packed();
+				sums[0][i + 1] = sums[0][i] + record.getPedestriansKilled();
+				sums[1][i + 1] = sums[1][i] + record.getCyclistsKilled();
+				sums[2][i + 1] = sums[2][i] + record.getMotoristsKilled();
+				sums[3][i + 1] = sums[3][i] + record.getPedestriansInjured();
+				sums[4][i + 1] = sums[4][i] + record.getCyclistsInjured();
+				sums[5][i + 1] = sums[5][i] + record.getMotoristsInjured();
+			}
+		}
+
+		/*
+		 * Returns the index of the first record whose date is not before the
+		 * given packed date, or the number of records if there is none.
+		 */
+		int firstOnOrAfter(int date) {
+			int from = 0;
+			int to = dates.length;
+			while (from < to) {
+				int middle = (from + to) >>> 1;
+				if (dates[middle] < date)
+					from = middle + 1;
+				else
+					to = middle;
+			}
+			return from;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class keeps one String for every distinct zip code, so that the
+ * records of a zip code share it instead of each holding its own copy, and
+ * gives every zip code an int code that sorts like the zip code itself.
+ *
+ * Almost every zip code is made of five digits; its code is its value
+ * (0 to 99999), so two of them compare like their ints. Such zip codes are
+ * kept in a table indexed by their code and can be found straight from the
+ * bytes of a csv row without building a String first. The few other zip
+ * codes (for example 1123A) have the code -1 and are compared as Strings.
+ *
+ * The dictionary is shared by all threads loading records.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ZipDictionary {
+
+	// code of the zip codes that are not made of five digits
+	static final int NO_CODE = -1;
+
+	// zip codes made of five digits, by code
+	private static final AtomicReferenceArray<String> DIGITS = new AtomicReferenceArray<String>(100000);
+	// all other zip codes
+	private static final ConcurrentHashMap<String, String> OTHERS = new ConcurrentHashMap<String, String>();
+
+	private ZipDictionary() {
+	}
+
+	/**
+	 * Returns the code of a zip code: its value if it is made of five
+	 * digits, otherwise NO_CODE.
+	 *
+	 * @param zip the zip code
+	 * @return the code
+	 */
+	public static int code(String zip) {
+		if (zip.length() != 5)
+			return NO_CODE;
+		int code = 0;
+		for (int i = 0; i < 5; i++) {
+			int digit = zip.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return NO_CODE;
+			code = code * 10 + digit;
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the shared String equal to the given zip code.
+	 *
+	 * @param zip the zip code
+	 * @return the shared zip code
+	 */
+	public static String intern(String zip) {
+		int code = code(zip);
+		if (code != NO_CODE)
+			return fromCode(code);
+		String shared = OTHERS.putIfAbsent(zip, zip);
+		return shared != null ? shared : zip;
+	}
+
+	/**
+	 * Returns the shared String of a zip code made of five digits.
+	 *
+	 * @param code the code of the zip code, 0 to 99999
+	 * @return the shared zip code
+	 */
+	public static String fromCode(int code) {
+		String zip = DIGITS.get(code);
+		if (zip == null) {
+			char[] digits = new char[5];
+			for (int i = 4, value = code; i >= 0; i--, value /= 10)
+				digits[i] = (char) ('0' + value % 10);
+			DIGITS.compareAndSet(code, null, new String(digits));
+			zip = DIGITS.get(code);
+		}
+		return zip;
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * This class ranks the zip codes of a group report by one counter, such as
+ * the top 20 zip codes by pedestrians killed between two dates.
+ *
+ * The per zip totals come from a GroupReport (computed in one ordered pass
+ * by CollisionsData or RollupCube). Only the best k zip codes are kept, in
+ * a heap whose smallest entry is replaced when a better one is found, so
+ * ranking takes O(z log k) steps for z zip codes. Ties are broken by zip
+ * code.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class ZipRanking {
+
+	private final Counter counter;
+	private final Date dateBegin;
+	private final Date dateEnd;
+	// best zip codes first
+	private final ArrayList<Entry> entries;
+
+	/**
+	 * Ranks the zip codes of a report by a counter.
+	 *
+	 * @param report the per zip code totals
+	 * @param counter the counter to rank by
+	 * @param k most zip codes in the ranking
+	 * @param dateBegin beginning of the date range of the report
+	 * @param dateEnd end of the date range of the report
+	 * @throws IllegalArgumentException if k is not positive
+	 */
+	public ZipRanking(GroupReport report, Counter counter, int k, Date dateBegin, Date dateEnd)
+			throws IllegalArgumentException {
+		if (k < 1)
+			throw new IllegalArgumentException("the number of zip codes has to be positive");
+		this.counter = counter;
+		this.dateBegin = dateBegin;
+		this.dateEnd = dateEnd;
+
+		// The head of the heap is the worst of the best k seen so far
+		PriorityQueue<Entry> heap = new PriorityQueue<Entry>();
+		for (String zip : report.getZips()) {
+			Entry entry = new Entry(zip, counter.of(report.getTotals(zip)));
+			if (heap.size() < k)
+				heap.add(entry);
+			else if (entry.compareTo(heap.peek()) > 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+		entries = new ArrayList<Entry>(heap);
+		Collections.sort(entries, Collections.reverseOrder());
+	}
+
+	/**
+	 * Returns the number of zip codes in the ranking
+	 * @return number of zip codes
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the zip code at a rank (0 is the first)
+	 *
+	 * @param rank the rank
+	 * @return the zip code
+	 */
+	public String getZip(int rank) {
+		return entries.get(rank).zip;
+	}
+
+	/**
+	 * Returns the value of the counter for the zip code at a rank
+	 *
+	 * @param rank the rank
+	 * @return the value
+	 */
+	public int getValue(int rank) {
+		return entries.get(rank).value;
+	}
+
+	/*
+	 * Produces the text of the ranking, one zip code per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Top ").append(entries.size()).append(" zip codes by ").append(counter.label()).append(' ')
+				.append(dateBegin).append(" - ").append(dateEnd).append('\n');
+		sb.append("====================================================================\n");
+		if (entries.isEmpty())
+			sb.append("There are no reports to show for these dates.\n");
+		for (int i = 0; i < entries.size(); i++)
+			sb.append(String.format("%3d. %s %8d%n", i + 1, entries.get(i).zip, entries.get(i).value));
+		return sb.toString();
+	}
+
+	/**
+	 * Entry is a zip code and its value. A greater value ranks higher, and
+	 * of two equal values the smaller zip code ranks higher.
+	 */
+	static final class Entry implements Comparable<Entry> {
+		final String zip;
+		final int value;
+
+		Entry(String zip, int value) {
+			this.zip = zip;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (value != other.value)
+				return Integer.compare(value, other.value);
+			return other.zip.compareTo(zip);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class describes the zip codes of a group report: a list of zip codes
+ * (the ones of a precinct, for example) or every zip code starting with a
+ * prefix ("112" for Brooklyn).
+ *
+ * The selection is kept as sorted, non-overlapping ranges of zip codes, so
+ * that a report can visit the zip codes of the tree in order and skip the
+ * ones between two ranges.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public final class ZipSelection {
+
+	// first and last zip code of every range, in order
+	private final String[] from;
+	private final String[] to;
+	private final String description;
+
+	private ZipSelection(ArrayList<String[]> ranges, String description) {
+		ranges.sort((a, b) -> a[0].compareTo(b[0]));
+		ArrayList<String[]> merged = new ArrayList<String[]>();
+		for (String[] range : ranges) {
+			String[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && range[0].compareTo(last[1]) <= 0) {
+				if (range[1].compareTo(last[1]) > 0)
+					last[1] = range[1];
+			} else {
+				merged.add(range.clone());
+			}
+		}
+		from = new String[merged.size()];
+		to = new String[merged.size()];
+		for (int i = 0; i < from.length; i++) {
+			from[i] = merged.get(i)[0];
+			to[i] = merged.get(i)[1];
+		}
+		this.description = description;
+	}
+
+	/**
+	 * Selects the given zip codes
+	 *
+	 * @param zips the zip codes
+	 * @return the selection
+	 * @throws IllegalArgumentException if no zip code is given or one is not valid
+	 */
+	public static ZipSelection of(String... zips) throws IllegalArgumentException {
+		if (zips.length == 0)
+			throw new IllegalArgumentException("no zip code given");
+		ArrayList<String[]> ranges = new ArrayList<String[]>();
+		for (String zip : zips) {
+			if (zip.length() != 5 || !Collision.containsDigit(zip))
+				throw new IllegalArgumentException("invalid zip code " + zip);
+			ranges.add(new String[] {zip, zip});
+		}
+		return new ZipSelection(ranges, String.join(",", zips));
+	}
+
+	/**
+	 * Selects every zip code that starts with the given prefix
+	 *
+	 * @param prefix the first one to five characters of the zip codes
+	 * @return the selection
+	 * @throws IllegalArgumentException if the prefix is empty or too long
+	 */
+	public static ZipSelection prefix(String prefix) throws IllegalArgumentException {
+		if (prefix.isEmpty() || prefix.length() > 5)
+			throw new IllegalArgumentException("invalid zip code prefix " + prefix);
+		ArrayList<String[]> ranges = new ArrayList<String[]>();
+		// every string starting with the prefix sorts before prefix + '\uffff'
+		ranges.add(new String[] {prefix, prefix + '\uffff'});
+		return new ZipSelection(ranges, prefix + "*");
+	}
+
+	/**
+	 * Selects every zip code
+	 *
+	 * @return the selection
+	 */
+	public static ZipSelection all() {
+		ArrayList<String[]> ranges = new ArrayList<String[]>();
+		ranges.add(new String[] {"", "\uffff"});
+		return new ZipSelection(ranges, "*");
+	}
+
+	/**
+	 * Reads a selection as typed by the user: a prefix followed by * (112*),
+	 * * alone for every zip code, or zip codes separated by commas
+	 * (10001,10002).
+	 *
+	 * @param text the selection
+	 * @return the selection
+	 * @throws IllegalArgumentException if the text is not a valid selection
+	 */
+	public static ZipSelection parse(String text) throws IllegalArgumentException {
+		text = text.trim();
+		if (text.equals("*"))
+			return all();
+		if (text.endsWith("*"))
+			return prefix(text.substring(0, text.length() - 1));
+		String[] zips = text.split(",");
+		for (int i = 0; i < zips.length; i++)
+			zips[i] = zips[i].trim();
+		return of(zips);
+	}
+
+	/**
+	 * Tells whether a text holds a group of zip codes rather than one
+	 *
+	 * @param text the zip code entered by the user
+	 * @return true if the text holds a prefix or a list of zip codes
+	 */
+	public static boolean isGroup(String text) {
+		return text.indexOf(',') >= 0 || text.indexOf('*') >= 0;
+	}
+
+	/*
+	 * Returns the index of the last range starting at or before zip, or -1.
+	 */
+	private int rangeAtOrBefore(String zip) {
+		int i = Arrays.binarySearch(from, zip);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	/**
+	 * Tells whether a zip code is selected
+	 *
+	 * @param zip the zip code
+	 * @return true if the zip code is selected
+	 */
+	public boolean contains(String zip) {
+		int i = rangeAtOrBefore(zip);
+		return i >= 0 && zip.compareTo(to[i]) <= 0;
+	}
+
+	/*
+	 * Returns the number of ranges of zip codes.
+	 */
+	int ranges() {
+		return from.length;
+	}
+
+	/*
+	 * Returns the first zip code of a range (a prefix for a prefix range).
+	 */
+	String rangeStart(int range) {
+		return from[range];
+	}
+
+	/*
+	 * Returns the last zip code of a range. It is the same as the first one
+	 *   for a single zip code.
+	 */
+	String rangeEnd(int range) {
+		return to[range];
+	}
+
+	/*
+	 * Returns the selection as it would be typed by the user.
+	 */
+	@Override
+	public String toString() {
+		return description;
+	}
+}
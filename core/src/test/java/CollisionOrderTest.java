@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This class checks that Collision orders records exactly as comparing
+ * their zip codes, dates and keys as Strings would, although it compares
+ * packed zip codes (see ZipDictionary) and keys (see Collision.packKey) as
+ * numbers whenever both sides have a packed form. The tree order of every
+ * index rests on it, so a change of packKey or ZipDictionary.code that
+ * reorders records fails here.
+ *
+ * The keys and zip codes are random mixes of the shapes that take each path:
+ * digits of every length around KEY_DIGITS, with and without leading zeros,
+ * and ones with letters that are never packed.
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+public class CollisionOrderTest {
+
+	// pairs compared by the random checks
+	static final int PAIRS = 1000000;
+
+	@Test
+	public void packedKeysSortLikeTheirStrings() {
+		Random random = new Random(42);
+		for (int i = 0; i < PAIRS; i++) {
+			String first = randomKey(random);
+			String second = randomKey(random);
+			long firstPacked = Collision.packKey(first);
+			long secondPacked = Collision.packKey(second);
+			if (firstPacked == Collision.NO_KEY || secondPacked == Collision.NO_KEY)
+				continue;
+			assertEquals(Integer.signum(first.compareTo(second)), Long.signum(Long.compare(firstPacked, secondPacked)),
+					first + " and " + second);
+			assertEquals(first, Collision.unpackKey(firstPacked));
+		}
+	}
+
+	@Test
+	public void zipCodesSortLikeTheirStrings() {
+		Random random = new Random(7);
+		for (int i = 0; i < PAIRS; i++) {
+			String first = randomZip(random);
+			String second = randomZip(random);
+			int firstCode = ZipDictionary.code(first);
+			int secondCode = ZipDictionary.code(second);
+			if (firstCode == ZipDictionary.NO_CODE || secondCode == ZipDictionary.NO_CODE)
+				continue;
+			assertEquals(Integer.signum(first.compareTo(second)), Integer.signum(firstCode - secondCode),
+					first + " and " + second);
+		}
+	}
+
+	@Test
+	public void collisionsSortLikeTheirStrings() {
+		Random random = new Random(1);
+		String[] dates = {"01/01/2015", "01/02/2015", "12/31/2016"};
+		for (int i = 0; i < PAIRS; i++) {
+			String[] first = {dates[random.nextInt(dates.length)], randomZip(random), randomKey(random)};
+			String[] second = random.nextInt(4) == 0 ? first.clone()
+					: new String[] {dates[random.nextInt(dates.length)], randomZip(random), randomKey(random)};
+			if (random.nextBoolean())
+				second[1] = first[1];
+			if (random.nextBoolean())
+				second[0] = first[0];
+
+			int expected = Integer.signum(first[1].compareTo(second[1]));
+			if (expected == 0)
+				expected = Integer.signum(new Date(first[0]).compareTo(new Date(second[0])));
+			if (expected == 0)
+				expected = Integer.signum(first[2].compareTo(second[2]));
+
+			String pair = Arrays.toString(first) + " and " + Arrays.toString(second);
+			Collision a = new Collision(entries(first));
+			Collision b = new Collision(entries(second));
+			assertEquals(expected, a.compareTo(b), pair);
+			assertEquals(-expected, b.compareTo(a), pair);
+			assertEquals(expected == 0, a.equals(b), pair);
+			// the constructor used by the file loaders packs from the bytes
+			Collision c = new Collision(row(first));
+			assertEquals(0, a.compareTo(c), pair);
+			assertEquals(expected, c.compareTo(b), pair);
+			assertEquals(first[2], c.getKey(), pair);
+		}
+	}
+
+	/*
+	 * Returns a key of one of the shapes found in the collisions file and
+	 * the ones next to the limits of packKey.
+	 */
+	static String randomKey(Random random) {
+		int length;
+		switch (random.nextInt(4)) {
+		case 0:
+			length = 1 + random.nextInt(3);
+			break;
+		case 1:
+			length = 7;
+			break;
+		default:
+			length = Collision.KEY_DIGITS - 2 + random.nextInt(5);
+		}
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < length; i++)
+			key.append((char) ('0' + (random.nextInt(3) == 0 ? random.nextInt(2) : random.nextInt(10))));
+		if (random.nextInt(20) == 0)
+			key.setCharAt(random.nextInt(length), (char) ('A' + random.nextInt(3)));
+		return key.toString();
+	}
+
+	/*
+	 * Returns a zip code, mostly of five digits.
+	 */
+	static String randomZip(Random random) {
+		StringBuilder zip = new StringBuilder();
+		for (int i = 0; i < 5; i++)
+			zip.append((char) ('0' + (i < 2 ? 1 : random.nextInt(10))));
+		if (random.nextInt(10) == 0)
+			zip.setCharAt(random.nextInt(5), (char) ('A' + random.nextInt(3)));
+		return zip.toString();
+	}
+
+	/*
+	 * Returns the entries of a row with the given date, zip code and key.
+	 */
+	static ArrayList<String> entries(String[] fields) {
+		ArrayList<String> entries = new ArrayList<String>();
+		for (int i = 0; i < 24; i++)
+			entries.add(i >= 10 && i <= 17 ? "0" : "");
+		entries.set(0, fields[0]);
+		entries.set(3, fields[1]);
+		entries.set(23, fields[2]);
+		return entries;
+	}
+
+	/*
+	 * Returns the row CSVMappedReader finds in the csv line of the fields.
+	 */
+	static CSVMappedReader.Row row(String[] fields) {
+		String line = String.join(",", entries(fields)) + "\n";
+		ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		CSVMappedReader.Row[] found = new CSVMappedReader.Row[1];
+		CSVMappedReader.scan(buffer, 0, buffer.limit(), new CSVMappedReader.Row(), row -> found[0] = row);
+		return found[0];
+	}
+}
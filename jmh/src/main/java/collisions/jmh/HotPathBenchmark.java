@@ -0,0 +1,149 @@
+package collisions.jmh;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * This class runs the workloads of BenchmarkSuite under JMH: splitCSVLine,
+ * the Collision(ArrayList) constructor, Date(String), CollisionsData.add,
+ * CollisionsData.remove, getReport and getReport of a FrozenIndex
+ * (frozenReport). The benchmark methods are named like the benchmarks of
+ * the suite, so that their results can be compared with each other.
+ *
+ * An operation of JMH is one iteration of a workload, which performs size
+ * operations of the benchmark (for add, remove and the reports size is
+ * also the number of records in the tree). BenchmarkSuite --jmh divides
+ * the scores by the size.
+ *
+ * JMH does not accept benchmarks in the default package, and a class of a
+ * package cannot name the classes of the default package, so the workloads
+ * are created through reflection when a trial starts; the measured code
+ * calls them as a Runnable.
+ *
+ * The rows of the synthetic dataset are generated, the rows of the real
+ * dataset are read from the csv file given by the file parameter, for
+ * example:
+ *   java -jar jmh/target/benchmarks.jar -p file=collisions.csv -prof gc
+ *     -rf csv -rff jmh.csv
+ *
+ * The sizes go up to 1e7; 1e8 needs a much larger heap and is run by the
+ * Maven profile large (mvn -B verify -Plarge).
+ *
+ * @author Alisha Sonawalla
+ * @version 12/11/2017
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HotPathBenchmark {
+
+	@Param({"100000", "1000000", "10000000"})
+	long size;
+
+	@Param({"synthetic", "real"})
+	String dataset;
+
+	// csv file of the real dataset
+	@Param({"collisions.csv"})
+	String file;
+
+	// the workload of the benchmark being run, a BenchmarkSuite.Workload
+	private Runnable workload;
+	// BenchmarkSuite.Workload.setup
+	private Method setup;
+
+	/*
+	 * Creates the workload of the benchmark method being run, with the rows
+	 * of the dataset.
+	 */
+	@Setup(Level.Trial)
+	public void createWorkload(BenchmarkParams params) throws Exception {
+		Class<?> suite = Class.forName("BenchmarkSuite");
+		Field pool = suite.getDeclaredField("POOL_SIZE");
+		pool.setAccessible(true);
+		int poolSize = pool.getInt(null);
+		Object rows;
+		if (dataset.equals("real")) {
+			Method realRows = suite.getDeclaredMethod("realRows", Path.class, int.class);
+			realRows.setAccessible(true);
+			rows = realRows.invoke(null, Paths.get(file), poolSize);
+		} else {
+			Method syntheticRows = suite.getDeclaredMethod("syntheticRows", int.class, Random.class);
+			syntheticRows.setAccessible(true);
+			rows = syntheticRows.invoke(null, poolSize, new Random(42));
+		}
+
+		String benchmark = params.getBenchmark();
+		String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+		Method create = suite.getDeclaredMethod("workload", String.class, String[].class, long.class);
+		create.setAccessible(true);
+		workload = (Runnable) create.invoke(null, name, rows, size);
+		setup = Class.forName("BenchmarkSuite$Workload").getDeclaredMethod("setup");
+		setup.setAccessible(true);
+	}
+
+	/*
+	 * Prepares the data of an iteration of the workload (the tree of
+	 * remove); not timed.
+	 */
+	@Setup(Level.Invocation)
+	public void setupWorkload() throws Exception {
+		setup.invoke(workload);
+	}
+
+	@Benchmark
+	public void splitCSVLine() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void Collision() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void Date() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void add() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void remove() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void getReport() {
+		workload.run();
+	}
+
+	@Benchmark
+	public void frozenReport() {
+		workload.run();
+	}
+}